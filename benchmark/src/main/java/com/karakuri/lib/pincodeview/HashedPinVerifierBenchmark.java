@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2013 Karakuri <karakuri.dev@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.karakuri.lib.pincodeview;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of one {@link HashedPinVerifier} check for a few iteration counts. The time
+ * per iteration also shows how {@link HashedPinVerifier#calibrate(long)} will scale on this JVM.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HashedPinVerifierBenchmark {
+	private static final PinVerifier.Cancellation NOT_CANCELED = new PinVerifier.Cancellation() {
+		@Override
+		public boolean isCanceled() {
+			return false;
+		}
+	};
+
+	@Param({ "1000", "10000", "100000" })
+	public int iterations;
+
+	private HashedPinVerifier mVerifier;
+	private final char[] mCorrectPin = { '4', '8', '2', '1', '3', '9' };
+	private final char[] mWrongPin = { '4', '8', '2', '1', '3', '0' };
+
+	@Setup
+	public void setup() {
+		mVerifier = HashedPinVerifier.create(mCorrectPin, iterations);
+	}
+
+	@Benchmark
+	public boolean verifyCorrect() {
+		return mVerifier.verify(mCorrectPin, NOT_CANCELED);
+	}
+
+	@Benchmark
+	public boolean verifyWrong() {
+		return mVerifier.verify(mWrongPin, NOT_CANCELED);
+	}
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2013 Karakuri <karakuri.dev@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.karakuri.lib.pincodeview;
+
+import java.nio.CharBuffer;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks edits through the {@link PinBuffer} that key listeners and input connections use:
+ * typing and deleting a full pin, pasting a long code, and saving and restoring instance state
+ * with {@link PinStateCodec}, in plain and encrypted form. Parceling itself needs the Android
+ * runtime, so save/restore is measured up to the bytes handed to the parcel.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PinBufferBenchmark {
+	private static final String[] KEYS = { "0", "1", "2", "3", "4", "5", "6", "7", "8", "9" };
+
+	@Param({ "4", "6", "8" })
+	public int pinLength;
+
+	/* an OTP-style paste, longer than any pin, with separators */
+	@Param({ "123 456 789 012 345 678 901 234" })
+	public String paste;
+
+	private PinBuffer mBuffer;
+	private int mNextKey;
+
+	@Setup
+	public void setup() {
+		mBuffer = new PinBuffer(new PinModel(pinLength, PinCharset.NUMERIC));
+	}
+
+	@Benchmark
+	public PinBuffer typeAndDelete() {
+		final PinBuffer buffer = mBuffer;
+		for (int i = 0; i < pinLength; i++) {
+			buffer.append(KEYS[mNextKey]);
+			mNextKey = (mNextKey + 1) % KEYS.length;
+		}
+		for (int i = pinLength; i > 0; i--) {
+			buffer.delete(i - 1, i);
+		}
+		return buffer;
+	}
+
+	@Benchmark
+	public PinBuffer bulkPaste() {
+		final PinBuffer buffer = mBuffer;
+		buffer.replace(0, buffer.length(), paste);
+		buffer.clear();
+		return buffer;
+	}
+
+	@Benchmark
+	public PinBuffer saveAndRestore() {
+		final PinBuffer buffer = mBuffer;
+		buffer.replace(0, buffer.length(), paste);
+		return restore(PinStateCodec.encode(buffer.getModel()));
+	}
+
+	@Benchmark
+	public PinBuffer saveAndRestoreEncrypted() throws GeneralSecurityException {
+		final PinBuffer buffer = mBuffer;
+		buffer.replace(0, buffer.length(), paste);
+		return restore(PinStateCodec.encrypt(buffer.getModel()));
+	}
+
+	/*
+	 * What PinCodeView.onRestoreInstanceState does with the saved bytes.
+	 */
+	private PinBuffer restore(byte[] data) {
+		final PinBuffer buffer = mBuffer;
+		buffer.clear();
+		final char[] pin = PinStateCodec.decode(data);
+		buffer.replace(0, buffer.length(), CharBuffer.wrap(pin));
+		Arrays.fill(pin, '\0');
+		return buffer;
+	}
+}
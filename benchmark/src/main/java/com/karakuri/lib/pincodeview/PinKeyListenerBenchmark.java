@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2013 Karakuri <karakuri.dev@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.karakuri.lib.pincodeview;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.karakuri.lib.pincodeview.PinKeyListener.Type;
+
+/**
+ * Benchmarks the character filtering done by {@link PinKeyListener} for each {@link Type}, for a
+ * single typed character and for a pasted code.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PinKeyListenerBenchmark {
+
+	@Param({ "NUMERIC", "ALPHA", "ALPHA_NUMERIC" })
+	public Type type;
+
+	/* a pasted code: mostly accepted characters, with separators that get dropped */
+	@Param({ "1234-5678-90AB-CDEF", "48213977" })
+	public String paste;
+
+	private String mKey;
+
+	@Setup
+	public void setup() {
+		mKey = type == Type.ALPHA ? "k" : "7";
+	}
+
+	@Benchmark
+	public CharSequence filterKeystroke() {
+		return type.getCharset().filter(mKey, 0, mKey.length());
+	}
+
+	@Benchmark
+	public CharSequence filterPaste() {
+		return type.getCharset().filter(paste, 0, paste.length());
+	}
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2013 Karakuri <karakuri.dev@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.karakuri.lib.pincodeview;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the Android-free {@link PinModel} directly: typing and deleting a full pin one
+ * character at a time, and a long pseudo-random sequence of typing, deletes and pastes.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PinModelBenchmark {
+	private static final int RANDOM_EDITS = 1024;
+	private static final String KEYS = "0123456789ab -";
+	private static final String[] PASTES = { "123456", "12 34 56", "otp: 987654", "" };
+
+	@Param({ "4", "6", "8" })
+	public int pinLength;
+
+	private PinModel mModel;
+	private int mNextKey;
+
+	/* pseudo-random edits: a char to type, or -1 to delete, or -2 - n to paste PASTES[n] */
+	private final int[] mEdits = new int[RANDOM_EDITS];
+
+	@Setup
+	public void setup() {
+		mModel = new PinModel(pinLength, PinCharset.NUMERIC);
+
+		Random random = new Random(42);
+		for (int i = 0; i < RANDOM_EDITS; i++) {
+			final int kind = random.nextInt(10);
+			if (kind < 6) {
+				mEdits[i] = KEYS.charAt(random.nextInt(KEYS.length()));
+			} else if (kind < 9) {
+				mEdits[i] = -1;
+			} else {
+				mEdits[i] = -2 - random.nextInt(PASTES.length);
+			}
+		}
+	}
+
+	@Benchmark
+	public PinModel typeAndDelete() {
+		final PinModel model = mModel;
+		for (int i = 0; i < pinLength; i++) {
+			model.append(KEYS.charAt(mNextKey));
+			mNextKey = (mNextKey + 1) % 10;
+		}
+		for (int i = pinLength; i > 0; i--) {
+			model.delete(i - 1, i);
+		}
+		return model;
+	}
+
+	@Benchmark
+	public PinModel randomEdits() {
+		final PinModel model = mModel;
+		for (int edit : mEdits) {
+			if (edit >= 0) {
+				model.append((char) edit);
+			} else if (edit == -1) {
+				final int length = model.length();
+				if (length > 0) model.delete(length - 1, length);
+			} else {
+				final String paste = PASTES[-2 - edit];
+				model.replace(0, model.length(), paste, 0, paste.length());
+			}
+		}
+		model.clear();
+		return model;
+	}
+}
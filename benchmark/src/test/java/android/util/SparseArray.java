@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2013 Karakuri <karakuri.dev@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package android.util;
+
+import java.util.Arrays;
+
+/**
+ * Takes the place of the framework class of the android-all jar in the tests. That one allocates
+ * its arrays through the Dalvik runtime, so it cannot be loaded on the JVM, and the key listeners
+ * fill a table with it when they are loaded. Test classes come first on the classpath, so this
+ * class is found instead.
+ */
+public class SparseArray<E> implements Cloneable {
+	private int[] mKeys;
+	private Object[] mValues;
+	private int mSize;
+
+	public SparseArray() {
+		this(10);
+	}
+
+	public SparseArray(int initialCapacity) {
+		mKeys = new int[initialCapacity];
+		mValues = new Object[initialCapacity];
+	}
+
+	public E get(int key) {
+		return get(key, null);
+	}
+
+	@SuppressWarnings("unchecked")
+	public E get(int key, E valueIfKeyNotFound) {
+		int i = indexOfKey(key);
+		return i >= 0 ? (E) mValues[i] : valueIfKeyNotFound;
+	}
+
+	public void put(int key, E value) {
+		int i = indexOfKey(key);
+		if (i >= 0) {
+			mValues[i] = value;
+			return;
+		}
+		i = ~i;
+		if (mSize == mKeys.length) {
+			mKeys = Arrays.copyOf(mKeys, Math.max(1, mSize * 2));
+			mValues = Arrays.copyOf(mValues, mKeys.length);
+		}
+		System.arraycopy(mKeys, i, mKeys, i + 1, mSize - i);
+		System.arraycopy(mValues, i, mValues, i + 1, mSize - i);
+		mKeys[i] = key;
+		mValues[i] = value;
+		mSize++;
+	}
+
+	public void append(int key, E value) {
+		put(key, value);
+	}
+
+	public void delete(int key) {
+		int i = indexOfKey(key);
+		if (i >= 0) {
+			removeAt(i);
+		}
+	}
+
+	public void remove(int key) {
+		delete(key);
+	}
+
+	public void removeAt(int index) {
+		System.arraycopy(mKeys, index + 1, mKeys, index, mSize - index - 1);
+		System.arraycopy(mValues, index + 1, mValues, index, mSize - index - 1);
+		mSize--;
+		mValues[mSize] = null;
+	}
+
+	public int size() {
+		return mSize;
+	}
+
+	public int keyAt(int index) {
+		return mKeys[index];
+	}
+
+	@SuppressWarnings("unchecked")
+	public E valueAt(int index) {
+		return (E) mValues[index];
+	}
+
+	public void setValueAt(int index, E value) {
+		mValues[index] = value;
+	}
+
+	public int indexOfKey(int key) {
+		return Arrays.binarySearch(mKeys, 0, mSize, key);
+	}
+
+	public void clear() {
+		Arrays.fill(mValues, 0, mSize, null);
+		mSize = 0;
+	}
+}
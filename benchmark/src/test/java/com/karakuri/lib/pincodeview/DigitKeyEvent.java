@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2013 Karakuri <karakuri.dev@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.karakuri.lib.pincodeview;
+
+import android.view.KeyEvent;
+
+/**
+ * A key down event of a keyboard whose number keys type digits and whose other keys type nothing.
+ * The framework looks characters up in native key maps, which are not available on the JVM.
+ */
+/*package*/ class DigitKeyEvent extends KeyEvent {
+
+	public DigitKeyEvent(int keyCode) {
+		super(ACTION_DOWN, keyCode);
+	}
+
+	@Override
+	public int getUnicodeChar(int metaState) {
+		final int keyCode = getKeyCode();
+		if (keyCode >= KEYCODE_0 && keyCode <= KEYCODE_9) {
+			return '0' + keyCode - KEYCODE_0;
+		}
+		return 0;
+	}
+}
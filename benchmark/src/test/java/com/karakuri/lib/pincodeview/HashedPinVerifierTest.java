@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2013 Karakuri <karakuri.dev@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.karakuri.lib.pincodeview;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+import org.junit.Test;
+
+public class HashedPinVerifierTest {
+	private static final int ITERATIONS = HashedPinVerifier.MIN_ITERATIONS;
+
+	private static final PinVerifier.Cancellation NOT_CANCELED = new PinVerifier.Cancellation() {
+		@Override
+		public boolean isCanceled() {
+			return false;
+		}
+	};
+
+	@Test
+	public void acceptsTheCreatedPin() {
+		HashedPinVerifier verifier = HashedPinVerifier.create("4821".toCharArray(), ITERATIONS);
+
+		assertTrue(verifier.verify("4821".toCharArray(), NOT_CANCELED));
+		assertEquals(ITERATIONS, verifier.getIterations());
+	}
+
+	@Test
+	public void rejectsWrongPins() {
+		HashedPinVerifier verifier = HashedPinVerifier.create("4821".toCharArray(), ITERATIONS);
+
+		assertFalse(verifier.verify("4822".toCharArray(), NOT_CANCELED));
+		assertFalse(verifier.verify("482".toCharArray(), NOT_CANCELED));
+		assertFalse(verifier.verify("48210".toCharArray(), NOT_CANCELED));
+		assertFalse(verifier.verify(new char[0], NOT_CANCELED));
+		assertFalse(verifier.verify(null, NOT_CANCELED));
+	}
+
+	@Test
+	public void leavesThePinUnmodified() {
+		final char[] pin = "4821".toCharArray();
+		HashedPinVerifier verifier = HashedPinVerifier.create(pin, ITERATIONS);
+		verifier.verify(pin, NOT_CANCELED);
+
+		assertArrayEquals("4821".toCharArray(), pin);
+	}
+
+	@Test
+	public void encodingRoundTrips() {
+		HashedPinVerifier verifier = HashedPinVerifier.create("AB12\u00e9".toCharArray(),
+				ITERATIONS + 1);
+		HashedPinVerifier restored = HashedPinVerifier.fromEncoded(verifier.getEncoded());
+
+		assertArrayEquals(verifier.getEncoded(), restored.getEncoded());
+		assertEquals(ITERATIONS + 1, restored.getIterations());
+		assertTrue(restored.verify("AB12\u00e9".toCharArray(), NOT_CANCELED));
+		assertFalse(restored.verify("AB12e".toCharArray(), NOT_CANCELED));
+	}
+
+	@Test
+	public void saltsEachPin() {
+		HashedPinVerifier first = HashedPinVerifier.create("4821".toCharArray(), ITERATIONS);
+		HashedPinVerifier second = HashedPinVerifier.create("4821".toCharArray(), ITERATIONS);
+
+		assertFalse(Arrays.equals(first.getEncoded(), second.getEncoded()));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsTruncatedEncoding() {
+		byte[] encoded = HashedPinVerifier.create("4821".toCharArray(), ITERATIONS).getEncoded();
+		HashedPinVerifier.fromEncoded(Arrays.copyOf(encoded, encoded.length - 1));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsUnknownEncodingVersion() {
+		byte[] encoded = HashedPinVerifier.create("4821".toCharArray(), ITERATIONS).getEncoded();
+		encoded[0] = 2;
+		HashedPinVerifier.fromEncoded(encoded);
+	}
+
+	@Test
+	public void stopsWhenCanceled() {
+		HashedPinVerifier verifier = HashedPinVerifier.create("4821".toCharArray(), 100000);
+
+		assertFalse(verifier.verify("4821".toCharArray(), new PinVerifier.Cancellation() {
+			@Override
+			public boolean isCanceled() {
+				return true;
+			}
+		}));
+	}
+
+	/*
+	 * The hand-rolled PBKDF2 must match the JDK's for ASCII pins, where both encode the same
+	 * bytes.
+	 */
+	@Test
+	public void matchesPlatformPbkdf2() throws Exception {
+		HashedPinVerifier verifier = HashedPinVerifier.create("9034".toCharArray(), ITERATIONS);
+		final byte[] encoded = verifier.getEncoded();
+		final byte[] salt = Arrays.copyOfRange(encoded, 5, 5 + HashedPinVerifier.SALT_LENGTH);
+		final byte[] hash = Arrays.copyOfRange(encoded, 5 + HashedPinVerifier.SALT_LENGTH,
+				encoded.length);
+
+		final PBEKeySpec spec = new PBEKeySpec("9034".toCharArray(), salt, ITERATIONS,
+				HashedPinVerifier.HASH_LENGTH * 8);
+		final byte[] expected = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1")
+				.generateSecret(spec).getEncoded();
+		assertArrayEquals(expected, hash);
+	}
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2013 Karakuri <karakuri.dev@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.karakuri.lib.pincodeview;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Field;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/*
+ * PinCodeView needs the Android runtime, so its model side is played here: binding shows the
+ * charset, maximum length and pin of a state like PinCodeView.bind does, and the change listener
+ * copies edits back to the bound state like the view's does.
+ */
+public class PinCodeStateTest {
+	// the PinCodeView.INPUT_TYPE_* values
+	private static final int INPUT_TYPE_NUMERIC = 1;
+	private static final int INPUT_TYPE_ALPHA = 2;
+	private static final int INPUT_TYPE_CUSTOM = 4;
+
+	private PinModel mModel;
+	private PinBuffer mBuffer;
+	private PinCodeState mBoundState;
+	private boolean mBinding;
+
+	@Before
+	public void setUp() {
+		mModel = new PinModel(4, PinCharset.NUMERIC);
+		mModel.setOnPinChangeListener(new PinModel.OnPinChangeListener() {
+			@Override
+			public void onPinChanged(PinModel model, int oldLength, int newLength) {
+				if (!mBinding && mBoundState != null) {
+					mBoundState.copyFrom(model);
+				}
+			}
+		});
+		mBuffer = new PinBuffer(mModel);
+	}
+
+	@Test
+	public void copyFromTakesThePinAndMaxLength() {
+		final PinModel model = new PinModel(6, PinCharset.NUMERIC);
+		model.replace(0, 0, "4821", 0, 4);
+		final PinCodeState state = new PinCodeState(4, INPUT_TYPE_NUMERIC);
+
+		state.copyFrom(model);
+
+		assertEquals(6, state.getMaxPinLength());
+		assertEquals("4821", getPin(state));
+		assertFalse(state.isPinFilled());
+	}
+
+	@Test
+	public void copyFromWipesRemovedCharacters() throws Exception {
+		final PinModel model = new PinModel(6, PinCharset.NUMERIC);
+		model.replace(0, 0, "482139", 0, 6);
+		final PinCodeState state = new PinCodeState(6, INPUT_TYPE_NUMERIC);
+		state.copyFrom(model);
+
+		model.delete(2, 6);
+		state.copyFrom(model);
+
+		assertEquals("48", getPin(state));
+		assertStateZeroedFrom(state, 2);
+	}
+
+	@Test
+	public void maxPinLengthRoundTrips() {
+		final PinCodeState state = new PinCodeState(6, INPUT_TYPE_NUMERIC);
+		bind(state);
+		mBuffer.append("482139");
+		assertEquals("482139", getPin(state));
+
+		state.setMaxPinLength(4);
+		assertEquals("4821", getPin(state));
+		assertTrue(state.isPinFilled());
+
+		state.setMaxPinLength(8);
+		bind(state);
+		assertEquals(8, mModel.getMaxLength());
+		assertEquals("4821", mBuffer.toString());
+
+		// what PinCodeView.setMaxPinLength does while bound
+		mBuffer.setMaxLength(3);
+		assertEquals(3, state.getMaxPinLength());
+		assertEquals("482", getPin(state));
+	}
+
+	@Test
+	public void charsetRoundTrips() {
+		final PinCodeState state = new PinCodeState(4, INPUT_TYPE_ALPHA);
+		assertEquals(INPUT_TYPE_ALPHA, state.getInputType());
+		assertNull(state.getCharset());
+
+		state.setCharset(PinCharset.HEX);
+		assertEquals(INPUT_TYPE_CUSTOM, state.getInputType());
+		assertSame(PinCharset.HEX, state.getCharset());
+
+		bind(state);
+		assertSame(PinCharset.HEX, mModel.getCharset());
+		mBuffer.append("c0fg");
+		assertEquals(mBuffer.toString(), getPin(state));
+
+		state.setInputType(INPUT_TYPE_NUMERIC);
+		assertEquals(INPUT_TYPE_NUMERIC, state.getInputType());
+		assertNull(state.getCharset());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void customInputTypeNeedsACharset() {
+		new PinCodeState(4, INPUT_TYPE_CUSTOM);
+	}
+
+	@Test
+	public void rebindingMovesEditsToTheNewState() {
+		final PinCodeState first = new PinCodeState(6, INPUT_TYPE_NUMERIC);
+		final PinCodeState second = new PinCodeState(4, PinCharset.HEX);
+		bind(first);
+		mBuffer.append("4821");
+
+		bind(second);
+		assertEquals(4, mModel.getMaxLength());
+		assertEquals("", mBuffer.toString());
+		mBuffer.append("A");
+		assertEquals("A", getPin(second));
+		assertEquals("4821", getPin(first));
+
+		bind(first);
+		assertEquals(6, mModel.getMaxLength());
+		assertEquals("4821", mBuffer.toString());
+		assertEquals("A", getPin(second));
+	}
+
+	/*
+	 * What PinCodeView.bind does to the model, with the charset PinKeyListener gives each type.
+	 */
+	private void bind(PinCodeState state) {
+		mBoundState = null;
+		mBinding = true;
+		try {
+			mModel.setCharset(getCharset(state));
+			mBuffer.setMaxLength(state.getMaxPinLength());
+			final CharSequence pin = state.getText();
+			mBuffer.replace(0, mBuffer.length(), pin, 0, pin.length());
+		} finally {
+			mBinding = false;
+		}
+		mBoundState = state;
+	}
+
+	private static PinCharset getCharset(PinCodeState state) {
+		switch (state.getInputType()) {
+		case INPUT_TYPE_CUSTOM:
+			return state.getCharset();
+		case INPUT_TYPE_ALPHA:
+			return PinCharset.ALPHA;
+		default:
+			return PinCharset.NUMERIC;
+		}
+	}
+
+	private static String getPin(PinCodeState state) {
+		final char[] pin = new char[state.getMaxPinLength()];
+		return new String(pin, 0, state.getPin(pin));
+	}
+
+	private static void assertStateZeroedFrom(PinCodeState state, int start) throws Exception {
+		final Field field = PinCodeState.class.getDeclaredField("mChars");
+		field.setAccessible(true);
+		final char[] chars = (char[]) field.get(state);
+		for (int i = start; i < chars.length; i++) {
+			assertEquals("char " + i, 0, chars[i]);
+		}
+	}
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2013 Karakuri <karakuri.dev@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.karakuri.lib.pincodeview;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import android.view.KeyCharacterMap;
+import android.view.KeyEvent;
+
+public class PinKeyListenerTest {
+	private PinBuffer mBuffer;
+
+	@Before
+	public void setUp() {
+		mBuffer = new PinBuffer(new PinModel(4, PinCharset.NUMERIC));
+	}
+
+	@Test
+	public void appendsCharactersAndDeletes() {
+		assertTrue(PinKeyListener.handleKey(mBuffer, KeyEvent.KEYCODE_4, '4'));
+		assertTrue(PinKeyListener.handleKey(mBuffer, KeyEvent.KEYCODE_8, '8'));
+		assertTrue(PinKeyListener.handleKey(mBuffer, KeyEvent.KEYCODE_DEL, 0));
+		assertTrue(PinKeyListener.handleKey(mBuffer, KeyEvent.KEYCODE_2, '2'));
+
+		assertEquals("42", mBuffer.toString());
+	}
+
+	@Test
+	public void typesKeysWithoutMetaState() {
+		final PinKeyListener listener = PinKeyListener.getInstance(PinKeyListener.Type.NUMERIC);
+		assertTrue(listener.onKeyDown(null, mBuffer, KeyEvent.KEYCODE_7,
+				new DigitKeyEvent(KeyEvent.KEYCODE_7)));
+		assertTrue(listener.onKeyDown(null, mBuffer, KeyEvent.KEYCODE_3,
+				new DigitKeyEvent(KeyEvent.KEYCODE_3)));
+		assertTrue(listener.onKeyDown(null, mBuffer, KeyEvent.KEYCODE_DEL,
+				new DigitKeyEvent(KeyEvent.KEYCODE_DEL)));
+
+		assertEquals("7", mBuffer.toString());
+	}
+
+	@Test
+	public void consumesRejectedCharacters() {
+		assertTrue(PinKeyListener.handleKey(mBuffer, KeyEvent.KEYCODE_A, 'a'));
+
+		assertEquals(0, mBuffer.length());
+	}
+
+	@Test
+	public void leavesOtherKeysToTheFramework() {
+		assertFalse(PinKeyListener.handleKey(mBuffer, KeyEvent.KEYCODE_DEL, 0));
+		assertFalse(PinKeyListener.handleKey(mBuffer, KeyEvent.KEYCODE_SHIFT_LEFT, 0));
+		assertFalse(PinKeyListener.handleKey(mBuffer, KeyEvent.KEYCODE_GRAVE,
+				KeyCharacterMap.COMBINING_ACCENT | '`'));
+		assertFalse(PinKeyListener.handleKey(mBuffer, KeyEvent.KEYCODE_SYM,
+				KeyCharacterMap.PICKER_DIALOG_INPUT));
+
+		assertEquals(0, mBuffer.length());
+	}
+}
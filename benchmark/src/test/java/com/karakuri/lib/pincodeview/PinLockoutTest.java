@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2013 Karakuri <karakuri.dev@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.karakuri.lib.pincodeview;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PinLockoutTest {
+	private static final int FREE_ATTEMPTS = 2;
+	private static final long BASE_DELAY = 1000;
+	private static final long MAX_DELAY = 8000;
+
+	@Rule
+	public final TemporaryFolder mFolder = new TemporaryFolder();
+
+	private File mFile;
+	// the wall clock shared by every lockout of a test
+	private long mNow = 1000000L;
+
+	@Before
+	public void setUp() {
+		mFile = new File(mFolder.getRoot(), "lockout");
+	}
+
+	private PinLockout newLockout() {
+		return new PinLockout(mFile, FREE_ATTEMPTS, BASE_DELAY, MAX_DELAY) {
+			@Override
+			protected long currentTimeMillis() {
+				return mNow;
+			}
+		};
+	}
+
+	@Test
+	public void delayDoublesUpToTheMaximum() {
+		PinLockout lockout = newLockout();
+
+		assertEquals(0, lockout.getDelayMillis(1));
+		assertEquals(0, lockout.getDelayMillis(2));
+		assertEquals(1000, lockout.getDelayMillis(3));
+		assertEquals(2000, lockout.getDelayMillis(4));
+		assertEquals(4000, lockout.getDelayMillis(5));
+		assertEquals(8000, lockout.getDelayMillis(6));
+		assertEquals(8000, lockout.getDelayMillis(7));
+		assertEquals(8000, lockout.getDelayMillis(Integer.MAX_VALUE));
+	}
+
+	@Test
+	public void failuresBeyondTheFreeAttemptsLockOut() throws IOException {
+		PinLockout lockout = newLockout();
+
+		lockout.recordAttempt(false);
+		lockout.recordAttempt(false);
+		assertFalse(lockout.isLockedOut());
+
+		lockout.recordAttempt(false);
+		assertTrue(lockout.isLockedOut());
+		assertEquals(1000, lockout.getRemainingMillis());
+
+		mNow += 600;
+		assertEquals(400, lockout.getRemainingMillis());
+		mNow += 400;
+		assertFalse(lockout.isLockedOut());
+
+		lockout.recordAttempt(false);
+		assertEquals(2000, lockout.getRemainingMillis());
+		assertEquals(4, lockout.getFailureCount());
+	}
+
+	@Test
+	public void correctPinResets() throws IOException {
+		PinLockout lockout = newLockout();
+		for (int i = 0; i < 4; i++) {
+			lockout.recordAttempt(false);
+		}
+
+		lockout.recordAttempt(true);
+
+		assertEquals(0, lockout.getFailureCount());
+		assertFalse(lockout.isLockedOut());
+		assertEquals(0, newLockout().getFailureCount());
+	}
+
+	@Test
+	public void survivesRestart() throws IOException {
+		PinLockout lockout = newLockout();
+		for (int i = 0; i < 4; i++) {
+			lockout.recordAttempt(false);
+		}
+
+		PinLockout restarted = newLockout();
+		assertEquals(4, restarted.getFailureCount());
+		assertEquals(2000, restarted.getRemainingMillis());
+
+		mNow += 2000;
+		restarted.recordAttempt(false);
+		assertEquals(4000, newLockout().getRemainingMillis());
+		assertFalse(new File(mFile.getPath() + ".tmp").exists());
+	}
+
+	@Test
+	public void clockSetBackIsLimitedToTheMaximum() throws IOException {
+		PinLockout lockout = newLockout();
+		for (int i = 0; i < 3; i++) {
+			lockout.recordAttempt(false);
+		}
+
+		mNow -= 60000;
+		PinLockout setBack = newLockout();
+		assertEquals(MAX_DELAY, setBack.getRemainingMillis());
+
+		mNow += MAX_DELAY / 2;
+		assertEquals(MAX_DELAY / 2, setBack.getRemainingMillis());
+		assertEquals(MAX_DELAY / 2, newLockout().getRemainingMillis());
+		mNow += MAX_DELAY / 2;
+		assertFalse(setBack.isLockedOut());
+		assertFalse(newLockout().isLockedOut());
+	}
+
+	@Test
+	public void checksumMismatchStartsOver() throws IOException {
+		PinLockout lockout = newLockout();
+		for (int i = 0; i < 4; i++) {
+			lockout.recordAttempt(false);
+		}
+
+		// change the failure count without fixing the checksum
+		RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+		try {
+			file.seek(7);
+			file.write(1);
+		} finally {
+			file.close();
+		}
+
+		PinLockout reloaded = newLockout();
+		assertEquals(0, reloaded.getFailureCount());
+		assertFalse(reloaded.isLockedOut());
+	}
+
+	@Test
+	public void corruptFileStartsOver() throws IOException {
+		FileOutputStream out = new FileOutputStream(mFile);
+		try {
+			out.write(new byte[] { 'n', 'o', 't', ' ', 'a', ' ', 'l', 'o', 'c', 'k', 'o', 'u', 't',
+					0, 0, 0, 0, 0, 0, 0 });
+		} finally {
+			out.close();
+		}
+
+		PinLockout lockout = newLockout();
+		assertEquals(0, lockout.getFailureCount());
+
+		lockout.recordAttempt(false);
+		assertEquals(1, newLockout().getFailureCount());
+	}
+
+	@Test
+	public void truncatedFileStartsOver() throws IOException {
+		PinLockout lockout = newLockout();
+		for (int i = 0; i < 4; i++) {
+			lockout.recordAttempt(false);
+		}
+
+		RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+		try {
+			file.setLength(12);
+		} finally {
+			file.close();
+		}
+
+		assertEquals(0, newLockout().getFailureCount());
+	}
+
+	@Test
+	public void loadsOnFirstUse() throws IOException {
+		for (int i = 0; i < 4; i++) {
+			newLockout().recordAttempt(false);
+		}
+
+		PinLockout lockout = newLockout();
+		assertFalse(lockout.isLoaded());
+		lockout.load();
+		assertTrue(lockout.isLoaded());
+		assertEquals(4, lockout.getFailureCount());
+
+		PinLockout unloaded = newLockout();
+		assertEquals(2000, unloaded.getRemainingMillis());
+		assertTrue(unloaded.isLoaded());
+	}
+
+	/*
+	 * The main thread reads the counters while the executor may be saving them.
+	 */
+	@Test(timeout = 10000)
+	public void gettersDoNotWaitForTheLock() throws Exception {
+		final PinLockout lockout = newLockout();
+		for (int i = 0; i < 3; i++) {
+			lockout.recordAttempt(false);
+		}
+		final CountDownLatch locked = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		Thread saving = new Thread() {
+			@Override
+			public void run() {
+				synchronized (lockout) {
+					locked.countDown();
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						// done
+					}
+				}
+			}
+		};
+		saving.start();
+		locked.await();
+		try {
+			assertEquals(3, lockout.getFailureCount());
+			assertEquals(1000, lockout.getRemainingMillis());
+			assertTrue(lockout.isLockedOut());
+		} finally {
+			release.countDown();
+			saving.join();
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsMaxBelowBase() {
+		new PinLockout(mFile, FREE_ATTEMPTS, BASE_DELAY, BASE_DELAY - 1);
+	}
+}
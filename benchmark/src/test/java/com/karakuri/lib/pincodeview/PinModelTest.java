@@ -0,0 +1,326 @@
+/*
+ * Copyright (C) 2013 Karakuri <karakuri.dev@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.karakuri.lib.pincodeview;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class PinModelTest {
+	private static final long FUZZ_SEED = 0x5eed1234L;
+	private static final int FUZZ_STEPS = 20000;
+	// typed characters, including some that no tested charset accepts
+	private static final String FUZZ_CHARS = "0123456789abcdefABCDEFoOlLiI-_ \u0661\u00e9";
+
+	private PinModel mModel;
+	// the {oldLength, newLength} of every change reported by the model
+	private final List<int[]> mChanges = new ArrayList<int[]>();
+
+	@Before
+	public void setUp() {
+		mModel = new PinModel(4, PinCharset.NUMERIC);
+		mModel.setOnPinChangeListener(new PinModel.OnPinChangeListener() {
+			@Override
+			public void onPinChanged(PinModel model, int oldLength, int newLength) {
+				assertEquals(newLength, model.length());
+				mChanges.add(new int[] { oldLength, newLength });
+			}
+		});
+	}
+
+	@Test
+	public void appendReportsEachChange() {
+		assertTrue(mModel.append('1'));
+		assertTrue(mModel.append('2'));
+		assertFalse(mModel.append('x'));
+
+		assertEquals("12", mModel.toString());
+		assertChanges(0, 1, 1, 2);
+	}
+
+	@Test
+	public void batchEditReportsOnceWhenTheOutermostBatchEnds() {
+		mModel.append('9');
+		mChanges.clear();
+
+		mModel.beginBatchEdit();
+		mModel.append('1');
+		mModel.beginBatchEdit();
+		mModel.append('2');
+		mModel.delete(0, 1);
+		mModel.endBatchEdit();
+		assertChanges();
+		mModel.append('3');
+		mModel.endBatchEdit();
+
+		assertEquals("123", mModel.toString());
+		assertChanges(1, 3);
+	}
+
+	@Test
+	public void batchEditWithoutChangesReportsNothing() {
+		mModel.beginBatchEdit();
+		mModel.append('x');
+		mModel.replace(0, 0, "", 0, 0);
+		mModel.endBatchEdit();
+
+		assertChanges();
+	}
+
+	@Test
+	public void replaceDropsRejectedAndTruncates() {
+		assertEquals(4, mModel.replace(0, 0, "12-34 56", 0, 8));
+		assertEquals("1234", mModel.toString());
+		assertTrue(mModel.isFilled());
+
+		// one char removed, so only one of the accepted chars fits
+		assertEquals(1, mModel.replace(1, 2, "x98", 0, 3));
+		assertEquals("1934", mModel.toString());
+		assertChanges(0, 4, 4, 4);
+	}
+
+	@Test
+	public void replaceNormalizesIntoTheCharset() {
+		mModel.setCharset(PinCharset.CROCKFORD_BASE32);
+		mModel.replace(0, 0, "a-o-l-u", 0, 7);
+
+		assertEquals("A01", mModel.toString());
+	}
+
+	@Test
+	public void setMaxLengthTruncatesAndReports() {
+		mModel.replace(0, 0, "1234", 0, 4);
+		mChanges.clear();
+
+		mModel.setMaxLength(2);
+
+		assertEquals("12", mModel.toString());
+		assertEquals(2, mModel.getMaxLength());
+		assertTrue(mModel.isFilled());
+		assertChanges(4, 2);
+	}
+
+	@Test
+	public void shrinkingAFullPinReportsItFilled() {
+		final PinModel model = new PinModel(6, PinCharset.NUMERIC);
+		final PinBuffer buffer = new PinBuffer(model);
+		// isFilled() as seen by each change reported
+		final List<Boolean> filled = new ArrayList<Boolean>();
+		model.setOnPinChangeListener(new PinModel.OnPinChangeListener() {
+			@Override
+			public void onPinChanged(PinModel model, int oldLength, int newLength) {
+				filled.add(model.isFilled());
+			}
+		});
+
+		model.replace(0, 0, "482139", 0, 6);
+		filled.clear();
+		model.setMaxLength(4);
+		assertEquals(Arrays.asList(true), filled);
+
+		model.setMaxLength(6);
+		buffer.replace(0, buffer.length(), "482139");
+		filled.clear();
+		buffer.setMaxLength(4);
+		assertEquals(Arrays.asList(true), filled);
+		assertEquals("4821", buffer.toString());
+	}
+
+	@Test
+	public void deleteZeroesRemovedChars() throws Exception {
+		mModel.replace(0, 0, "1234", 0, 4);
+		mModel.delete(1, 3);
+
+		assertEquals("14", mModel.toString());
+		assertBackingZeroedFrom(2);
+	}
+
+	@Test
+	public void wipeZeroesEverythingAndReports() throws Exception {
+		mModel.replace(0, 0, "123", 0, 3);
+		mChanges.clear();
+
+		mModel.wipe();
+
+		assertEquals(0, mModel.length());
+		assertBackingZeroedFrom(0);
+		assertChanges(3, 0);
+
+		mModel.wipe();
+		assertChanges(3, 0);
+	}
+
+	/*
+	 * Random edits checked against a StringBuilder doing the same edits the slow way.
+	 */
+	@Test
+	public void randomEditsMatchReference() throws Exception {
+		final PinCharset[] charsets = { PinCharset.NUMERIC, PinCharset.ALPHA_NUMERIC,
+				PinCharset.HEX, PinCharset.CROCKFORD_BASE32 };
+		final Random random = new Random(FUZZ_SEED);
+		final StringBuilder expected = new StringBuilder();
+		int maxLength = mModel.getMaxLength();
+		int batchDepth = 0;
+		int batchStartLength = 0;
+		boolean changedInBatch = false;
+
+		for (int step = 0; step < FUZZ_STEPS; step++) {
+			final String where = "step " + step;
+			final int length = expected.length();
+			mChanges.clear();
+			final int oldLength = length;
+			boolean changed;
+
+			switch (random.nextInt(8)) {
+			case 0:
+			case 1:
+			case 2: {
+				final int st = random.nextInt(length + 1);
+				final int en = st + random.nextInt(length - st + 1);
+				final String source = randomText(random);
+				final int start = random.nextInt(source.length() + 1);
+				final int end = start + random.nextInt(source.length() - start + 1);
+
+				final String accepted = accepted(mModel.getCharset(), source, start, end,
+						maxLength - (length - (en - st)));
+				assertEquals(where, accepted.length(), mModel.replace(st, en, source, start, end));
+				expected.replace(st, en, accepted);
+				changed = en > st || accepted.length() > 0;
+				break;
+			}
+			case 3: {
+				final char c = FUZZ_CHARS.charAt(random.nextInt(FUZZ_CHARS.length()));
+				final char normalized = mModel.getCharset().normalize(c);
+				changed = normalized != 0 && length < maxLength;
+				assertEquals(where, changed, mModel.append(c));
+				if (changed) {
+					expected.append(normalized);
+				}
+				break;
+			}
+			case 4: {
+				final int st = random.nextInt(length + 1);
+				final int en = st + random.nextInt(length - st + 1);
+				mModel.delete(st, en);
+				expected.delete(st, en);
+				changed = en > st;
+				break;
+			}
+			case 5:
+				if (random.nextBoolean()) {
+					mModel.clear();
+				} else {
+					mModel.wipe();
+				}
+				expected.setLength(0);
+				changed = length > 0;
+				break;
+			case 6:
+				if (batchDepth == 0 || (batchDepth < 3 && random.nextBoolean())) {
+					if (batchDepth++ == 0) {
+						batchStartLength = length;
+					}
+					mModel.beginBatchEdit();
+				} else {
+					mModel.endBatchEdit();
+					if (--batchDepth == 0 && changedInBatch) {
+						assertChanges(where, batchStartLength, length);
+						changedInBatch = false;
+					} else {
+						assertChanges(where);
+					}
+				}
+				continue;
+			default:
+				if (random.nextInt(4) == 0) {
+					maxLength = random.nextInt(9);
+					mModel.setMaxLength(maxLength);
+					changed = length > maxLength;
+					if (changed) {
+						expected.setLength(maxLength);
+					}
+				} else {
+					mModel.setCharset(charsets[random.nextInt(charsets.length)]);
+					changed = false;
+				}
+				break;
+			}
+
+			assertEquals(where, expected.toString(), mModel.toString());
+			assertEquals(where, expected.length() == maxLength, mModel.isFilled());
+			assertBackingZeroedFrom(expected.length());
+			if (batchDepth > 0) {
+				changedInBatch |= changed;
+				assertChanges(where);
+			} else if (changed) {
+				assertChanges(where, oldLength, expected.length());
+			} else {
+				assertChanges(where);
+			}
+		}
+	}
+
+	private static String randomText(Random random) {
+		final char[] chars = new char[random.nextInt(12)];
+		for (int i = 0; i < chars.length; i++) {
+			chars[i] = FUZZ_CHARS.charAt(random.nextInt(FUZZ_CHARS.length()));
+		}
+		return new String(chars);
+	}
+
+	/*
+	 * Returns the normalized accepted chars of source[start ... end), at most limit of them.
+	 */
+	private static String accepted(PinCharset charset, String source, int start, int end,
+			int limit) {
+		final StringBuilder accepted = new StringBuilder();
+		for (int i = start; i < end && accepted.length() < limit; i++) {
+			final char c = charset.normalize(source.charAt(i));
+			if (c != 0) {
+				accepted.append(c);
+			}
+		}
+		return accepted.toString();
+	}
+
+	private void assertChanges(int... lengths) {
+		assertChanges("", lengths);
+	}
+
+	private void assertChanges(String message, int... lengths) {
+		assertEquals(message, lengths.length / 2, mChanges.size());
+		for (int i = 0; i < mChanges.size(); i++) {
+			assertEquals(message, lengths[2 * i], mChanges.get(i)[0]);
+			assertEquals(message, lengths[2 * i + 1], mChanges.get(i)[1]);
+		}
+	}
+
+	private void assertBackingZeroedFrom(int start) throws Exception {
+		final Field field = PinModel.class.getDeclaredField("mChars");
+		field.setAccessible(true);
+		final char[] chars = (char[]) field.get(mModel);
+		for (int i = start; i < chars.length; i++) {
+			assertEquals("char " + i, 0, chars[i]);
+		}
+	}
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2013 Karakuri <karakuri.dev@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.karakuri.lib.pincodeview;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/*
+ * Runs the executor side of verifications, which does not need the main thread.
+ */
+public class PinVerificationTest {
+	private static final PinVerification.Callback NO_CALLBACK = new PinVerification.Callback() {
+		@Override
+		public void onVerificationResult(PinVerification verification, boolean verified) {
+		}
+	};
+
+	@Rule
+	public final TemporaryFolder mFolder = new TemporaryFolder();
+
+	private PinLockout mLockout;
+	private HashedPinVerifier mVerifier;
+	private int mVerifierCalls;
+
+	@Before
+	public void setUp() {
+		mLockout = new PinLockout(new File(mFolder.getRoot(), "lockout"), 1, 1000, 8000);
+		mVerifier = HashedPinVerifier.create("4821".toCharArray(), HashedPinVerifier.MIN_ITERATIONS);
+	}
+
+	/*
+	 * Returns a verification of the given pin with the hashed verifier, which cancels it first if
+	 * asked to, as an edit on the main thread would while the verifier runs.
+	 */
+	private PinVerification newVerification(String pin, final boolean cancel) {
+		final PinVerification[] verification = new PinVerification[1];
+		verification[0] = new PinVerification(new PinVerifier() {
+			@Override
+			public boolean verify(char[] pin, Cancellation cancellation) {
+				mVerifierCalls++;
+				if (cancel) {
+					verification[0].cancel();
+				}
+				return mVerifier.verify(pin, cancellation);
+			}
+		}, mLockout, NO_CALLBACK, pin.toCharArray());
+		return verification[0];
+	}
+
+	@Test
+	public void wrongPinIsRecorded() throws IOException {
+		PinVerification verification = newVerification("1234", false);
+		verification.verifyAndRecord();
+
+		assertTrue(verification.wasAttempted());
+		assertEquals(1, mVerifierCalls);
+		assertEquals(1, mLockout.getFailureCount());
+	}
+
+	@Test
+	public void cancelledVerificationIsNotRecorded() throws IOException {
+		newVerification("1234", true).verifyAndRecord();
+		newVerification("4821", true).verifyAndRecord();
+
+		assertEquals(2, mVerifierCalls);
+		assertEquals(0, mLockout.getFailureCount());
+		assertFalse(mLockout.isLockedOut());
+	}
+
+	@Test
+	public void correctPinResetsTheFailures() throws IOException {
+		mLockout.recordAttempt(false);
+
+		newVerification("4821", false).verifyAndRecord();
+
+		assertEquals(0, mLockout.getFailureCount());
+	}
+
+	@Test
+	public void lockoutSkipsTheVerifier() throws IOException {
+		mLockout.recordAttempt(false);
+		mLockout.recordAttempt(false);
+		assertTrue(mLockout.isLockedOut());
+
+		PinVerification verification = newVerification("4821", false);
+		verification.verifyAndRecord();
+
+		assertFalse(verification.wasAttempted());
+		assertEquals(0, mVerifierCalls);
+		assertEquals(2, mLockout.getFailureCount());
+	}
+}
@@ -0,0 +1,360 @@
+/*
+ * Copyright (C) 2013 Karakuri <karakuri.dev@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.karakuri.lib.pincodeview;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import android.text.InputFilter;
+import android.view.KeyEvent;
+
+import com.google.monitoring.runtime.instrumentation.AllocationRecorder;
+import com.sun.management.ThreadMXBean;
+import com.google.monitoring.runtime.instrumentation.Sampler;
+import com.karakuri.lib.pincodeview.PinKeyListener.Type;
+
+/**
+ * Checks that typing a pin does not allocate. The objects created on the test thread are counted
+ * with the allocation instrumenter that surefire loads as a java agent, and the bytes with the
+ * thread allocation counter of the JVM. Each path runs the library's own code:
+ * <ul>
+ * <li>keys: {@link PinKeyListener#onKeyDown}, inside the batch edit and metrics of
+ * {@code PinCodeView.doKeyDown}
+ * <li>input method: {@link PinInputEditor#commitText}, {@link PinInputEditor#setComposingText} and
+ * {@link PinInputEditor#deleteSurroundingText}, which {@code PinCodeInputConnection} delegates to
+ * <li>setPin: the {@link PinBuffer#replace} that is the whole of {@code PinCodeView.setPin}
+ * <li>bind: what {@code PinCodeView.bind} does to the model for states of the same length and
+ * charset, with edits copied back to the bound {@link PinCodeState}
+ * <li>filter: the keys again, with {@link PinKeyListener#filter} installed on the buffer
+ * </ul>
+ * {@code PinCodeView.doKeyDown} itself, and what the view does on each change, updating its
+ * indicators and announcing the progress, need the Android runtime and are not covered.
+ * <p>
+ * The system properties {@code pin.alloc.budget} and {@code pin.alloc.bytes} set the objects and
+ * the bytes allowed per event, 0 by default.
+ */
+public class TypingAllocationTest {
+	private static final int PIN_LENGTH = 6;
+	private static final int ROUNDS = 1000;
+	// the JVM allocates now and then on its own, so a path only fails if every measurement does
+	private static final int MEASUREMENTS = 3;
+	private static final String[] KEYS = { "0", "1", "2", "3", "4", "5", "6", "7", "8", "9" };
+	private static final KeyEvent DELETE = new DigitKeyEvent(KeyEvent.KEYCODE_DEL);
+	private static final String PIN = "482139";
+	// the allocations listed when the budget is exceeded
+	private static final int MAX_REPORTED = 8;
+
+	private static final double BUDGET = Double.parseDouble(System.getProperty("pin.alloc.budget",
+			"0"));
+	private static final double BYTES_BUDGET = Double.parseDouble(System.getProperty(
+			"pin.alloc.bytes", "0"));
+
+	// keeps the probe allocation from being optimized away
+	private static Object sProbe;
+
+	private final Counter mCounter = new Counter();
+	private final PinCodeHistogramMetrics mMetrics = new PinCodeHistogramMetrics();
+	private PinModel mModel;
+	private PinBuffer mBuffer;
+	private PinInputEditor mEditor;
+	private final PinKeyListener mKeyListener = PinKeyListener.getInstance(Type.NUMERIC);
+	private final KeyEvent[] mDigitKeys = new KeyEvent[KEYS.length];
+	private int mNextKey;
+
+	// what PinCodeView keeps up to date from the model's change listener
+	private int mFilledIndicators;
+	private int mPinChanges;
+	private PinCodeState mBoundState;
+	private boolean mBinding;
+
+	/*
+	 * A path typing a pin and deleting it again. Returns the number of events it handled.
+	 */
+	private interface TypingPath {
+		int run();
+	}
+
+	@BeforeClass
+	public static void checkAgent() {
+		final Counter counter = new Counter();
+		counter.start();
+		sProbe = new Object();
+		counter.stop();
+		if (counter.mObjects == 0) {
+			fail("allocations are not recorded; run with -javaagent:java-allocation-instrumenter.jar,"
+					+ " as mvn test does");
+		}
+		if (counter.mBytes == 0) {
+			fail("the JVM does not count the bytes allocated by threads");
+		}
+	}
+
+	@Before
+	public void setUp() {
+		mModel = new PinModel(PIN_LENGTH, PinCharset.NUMERIC);
+		mModel.setOnPinChangeListener(new PinModel.OnPinChangeListener() {
+			@Override
+			public void onPinChanged(PinModel model, int oldLength, int newLength) {
+				mFilledIndicators = newLength;
+				mPinChanges++;
+				if (!mBinding && mBoundState != null) {
+					mBoundState.copyFrom(model);
+				}
+			}
+		});
+		mBuffer = new PinBuffer(mModel);
+		for (int i = 0; i < mDigitKeys.length; i++) {
+			mDigitKeys[i] = new DigitKeyEvent(KeyEvent.KEYCODE_0 + i);
+		}
+		mEditor = new PinInputEditor(mBuffer) {
+			@Override
+			protected boolean isInputLocked() {
+				return false;
+			}
+
+			@Override
+			protected PinCodeMetrics getMetrics() {
+				return mMetrics;
+			}
+		};
+	}
+
+	@After
+	public void tearDown() {
+		mCounter.stop();
+	}
+
+	@Test
+	public void keys() {
+		assertWithinBudget("keys", new TypingPath() {
+			@Override
+			public int run() {
+				return typeKeys();
+			}
+		});
+	}
+
+	@Test
+	public void filteredKeys() {
+		mBuffer.setFilters(new InputFilter[] { PinKeyListener.getInstance(Type.NUMERIC) });
+		assertWithinBudget("filtered keys", new TypingPath() {
+			@Override
+			public int run() {
+				return typeKeys();
+			}
+		});
+	}
+
+	@Test
+	public void commitText() {
+		assertWithinBudget("commitText", new TypingPath() {
+			@Override
+			public int run() {
+				for (int i = 0; i < PIN_LENGTH; i++) {
+					assertTrue(mEditor.commitText(nextKey()));
+				}
+				for (int i = 0; i < PIN_LENGTH; i++) {
+					assertTrue(mEditor.deleteSurroundingText(1, 0));
+				}
+				return 2 * PIN_LENGTH;
+			}
+		});
+	}
+
+	@Test
+	public void composingText() {
+		assertWithinBudget("setComposingText", new TypingPath() {
+			@Override
+			public int run() {
+				for (int i = 0; i < PIN_LENGTH; i++) {
+					assertTrue(mEditor.setComposingText(nextKey()));
+					assertTrue(mEditor.commitText(nextKey()));
+				}
+				assertTrue(mEditor.deleteSurroundingText(PIN_LENGTH, 0));
+				return 2 * PIN_LENGTH + 1;
+			}
+		});
+	}
+
+	@Test
+	public void setPin() {
+		assertWithinBudget("setPin", new TypingPath() {
+			@Override
+			public int run() {
+				mBuffer.replace(0, mBuffer.length(), PIN);
+				mBuffer.replace(0, mBuffer.length(), "");
+				return 2;
+			}
+		});
+	}
+
+	@Test
+	public void bind() {
+		final PinCodeState filled = new PinCodeState(PIN_LENGTH, PinCharset.NUMERIC);
+		final PinCodeState empty = new PinCodeState(PIN_LENGTH, PinCharset.NUMERIC);
+		bindState(filled);
+		mBuffer.replace(0, mBuffer.length(), PIN);
+		assertEquals(PIN_LENGTH, filled.getPinLength());
+
+		assertWithinBudget("bind", new TypingPath() {
+			@Override
+			public int run() {
+				bindState(filled);
+				bindState(empty);
+				assertTrue(mEditor.commitText(nextKey()));
+				assertTrue(mEditor.deleteSurroundingText(1, 0));
+				return 4;
+			}
+		});
+		assertEquals(PIN_LENGTH, filled.getPinLength());
+		assertEquals(0, empty.getPinLength());
+	}
+
+	/*
+	 * Runs the path as many times to warm up as it is then measured, and fails if it allocated
+	 * more objects or bytes per event than the budgets allow in each measurement.
+	 */
+	private void assertWithinBudget(String name, TypingPath path) {
+		for (int i = 0; i < ROUNDS; i++) {
+			path.run();
+		}
+
+		for (int measurement = 1; ; measurement++) {
+			mPinChanges = 0;
+			long events = 0;
+			mCounter.start();
+			for (int i = 0; i < ROUNDS; i++) {
+				events += path.run();
+			}
+			mCounter.stop();
+
+			assertTrue(name + " did not change the pin", mPinChanges > 0);
+			assertEquals(name + " left a pin", 0, mFilledIndicators);
+			if (mCounter.mObjects <= BUDGET * events && mCounter.mBytes <= BYTES_BUDGET * events) {
+				return;
+			}
+			if (measurement == MEASUREMENTS) {
+				final int reported = (int) Math.min(mCounter.mObjects, MAX_REPORTED);
+				fail(String.format("%s allocated %d objects and %d bytes in %d events, over the"
+						+ " budget of %.1f objects and %.1f bytes per event; the first objects were"
+						+ " %s", name, mCounter.mObjects, mCounter.mBytes, events, BUDGET,
+						BYTES_BUDGET, Arrays.toString(Arrays.copyOf(mCounter.mFirst, reported))));
+			}
+		}
+	}
+
+	/*
+	 * What PinCodeView.doKeyDown does for digit keys, one more than fits, and then delete keys: a
+	 * batch edit around the key listener's onKeyDown, timed with the metrics. The view is only
+	 * used by the framework listener, for the keys the pin listener leaves to it.
+	 */
+	private int typeKeys() {
+		for (int i = 0; i <= PIN_LENGTH; i++) {
+			keyDown(mDigitKeys[nextDigit()]);
+		}
+		for (int i = 0; i < PIN_LENGTH; i++) {
+			keyDown(DELETE);
+		}
+		return 2 * PIN_LENGTH + 1;
+	}
+
+	private void keyDown(KeyEvent event) {
+		final long start = mMetrics.now();
+		mBuffer.beginBatchEdit();
+		assertTrue(mKeyListener.onKeyDown(null, mBuffer, event.getKeyCode(), event));
+		mBuffer.endBatchEdit();
+		mMetrics.onEvent(PinCodeMetrics.EVENT_KEY_DOWN, mMetrics.now() - start);
+	}
+
+	/*
+	 * What PinCodeView.bind does to the model.
+	 */
+	private void bindState(PinCodeState state) {
+		mBoundState = null;
+		mBinding = true;
+		try {
+			mModel.setCharset(state.getCharset());
+			mBuffer.setMaxLength(state.getMaxPinLength());
+			final CharSequence pin = state.getText();
+			mBuffer.replace(0, mBuffer.length(), pin, 0, pin.length());
+		} finally {
+			mBinding = false;
+		}
+		mBoundState = state;
+	}
+
+	private int nextDigit() {
+		final int digit = mNextKey;
+		mNextKey = (mNextKey + 1) % KEYS.length;
+		return digit;
+	}
+
+	private String nextKey() {
+		return KEYS[nextDigit()];
+	}
+
+	/*
+	 * Counts the objects and bytes allocated by the thread that started it. The sampler only stores
+	 * references, so it does not allocate itself, and it is registered before counting starts since
+	 * adding and removing samplers allocates.
+	 */
+	private static class Counter implements Sampler {
+		private static final ThreadMXBean sThreads = (ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+
+		private final String[] mFirst = new String[MAX_REPORTED];
+		private volatile Thread mThread;
+		private long mThreadId;
+		private long mObjects;
+		private long mBytes;
+
+		void start() {
+			AllocationRecorder.addSampler(this);
+			mObjects = 0;
+			Arrays.fill(mFirst, null);
+			mThreadId = Thread.currentThread().getId();
+			mBytes = sThreads.getThreadAllocatedBytes(mThreadId);
+			mThread = Thread.currentThread();
+		}
+
+		void stop() {
+			if (mThread == null) {
+				return;
+			}
+			mThread = null;
+			mBytes = sThreads.getThreadAllocatedBytes(mThreadId) - mBytes;
+			AllocationRecorder.removeSampler(this);
+		}
+
+		@Override
+		public void sampleAllocation(int count, String desc, Object newObj, long size) {
+			if (Thread.currentThread() != mThread) {
+				return;
+			}
+			if (mObjects < MAX_REPORTED) {
+				mFirst[(int) mObjects] = desc;
+			}
+			mObjects++;
+		}
+	}
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright (C) 2013 Karakuri <karakuri.dev@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.karakuri.lib.pincodeview;
+
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * A {@link PinVerifier} checking pins against a salted PBKDF2-HMAC-SHA1 hash stored on the device.
+ * The pin itself is never stored. Hashes are compared in constant time.
+ * <p>
+ * The iteration count sets the cost of each attempt. Use {@link #calibrate(long)} to pick one for
+ * a target latency on the current device, and store it with the hash in {@link #getEncoded()}, so
+ * a later check costs the same.
+ * <p>
+ * This class does not depend on the Android framework.
+ */
+public final class HashedPinVerifier implements PinVerifier {
+	/** The length of the random salt, in bytes. */
+	public static final int SALT_LENGTH = 16;
+	/** The length of the hash, in bytes. */
+	public static final int HASH_LENGTH = 20;
+	/** The smallest iteration count accepted. */
+	public static final int MIN_ITERATIONS = 1000;
+
+	private static final String MAC_ALGORITHM = "HmacSHA1";
+	private static final int ENCODING_VERSION = 1;
+	private static final int ENCODED_LENGTH = 1 + 4 + SALT_LENGTH + HASH_LENGTH;
+
+	// how often a running derivation checks for cancellation
+	private static final int CANCELLATION_CHECK_INTERVAL = 1024;
+
+	// iterations are measured for at least this long when calibrating
+	private static final long CALIBRATION_MIN_NANOS = 50 * 1000 * 1000L;
+	private static final int CALIBRATION_MAX_ITERATIONS = 1 << 24;
+
+	private static final PinVerifier.Cancellation NOT_CANCELABLE = new PinVerifier.Cancellation() {
+		@Override
+		public boolean isCanceled() {
+			return false;
+		}
+	};
+
+	private final byte[] mSalt;
+	private final byte[] mHash;
+	private final int mIterations;
+
+	/**
+	 * Create a verifier from a previously stored salt, hash and iteration count.
+	 */
+	public HashedPinVerifier(byte[] salt, byte[] hash, int iterations) {
+		if (salt == null || salt.length != SALT_LENGTH) {
+			throw new IllegalArgumentException("salt must be " + SALT_LENGTH + " bytes");
+		}
+		if (hash == null || hash.length != HASH_LENGTH) {
+			throw new IllegalArgumentException("hash must be " + HASH_LENGTH + " bytes");
+		}
+		if (iterations < MIN_ITERATIONS) {
+			throw new IllegalArgumentException("iterations must be at least " + MIN_ITERATIONS);
+		}
+		mSalt = salt.clone();
+		mHash = hash.clone();
+		mIterations = iterations;
+	}
+
+	/**
+	 * Create a verifier for a new pin, hashing it with a random salt.
+	 *
+	 * @param pin The pin to accept. It is not modified or kept.
+	 * @param iterations The iteration count, e.g. from {@link #calibrate(long)}.
+	 */
+	public static HashedPinVerifier create(char[] pin, int iterations) {
+		if (pin == null || pin.length == 0) {
+			throw new IllegalArgumentException("pin must not be empty");
+		}
+		if (iterations < MIN_ITERATIONS) {
+			throw new IllegalArgumentException("iterations must be at least " + MIN_ITERATIONS);
+		}
+
+		byte[] salt = new byte[SALT_LENGTH];
+		new SecureRandom().nextBytes(salt);
+		byte[] hash = new byte[HASH_LENGTH];
+		derive(pin, salt, iterations, hash, NOT_CANCELABLE);
+		return new HashedPinVerifier(salt, hash, iterations);
+	}
+
+	/**
+	 * Create a verifier from the output of {@link #getEncoded()}.
+	 *
+	 * @throws IllegalArgumentException if the encoding is not valid.
+	 */
+	public static HashedPinVerifier fromEncoded(byte[] encoded) {
+		if (encoded == null || encoded.length != ENCODED_LENGTH
+				|| encoded[0] != ENCODING_VERSION) {
+			throw new IllegalArgumentException("not an encoded HashedPinVerifier");
+		}
+
+		final int iterations = ((encoded[1] & 0xff) << 24) | ((encoded[2] & 0xff) << 16)
+				| ((encoded[3] & 0xff) << 8) | (encoded[4] & 0xff);
+		byte[] salt = new byte[SALT_LENGTH];
+		byte[] hash = new byte[HASH_LENGTH];
+		System.arraycopy(encoded, 5, salt, 0, SALT_LENGTH);
+		System.arraycopy(encoded, 5 + SALT_LENGTH, hash, 0, HASH_LENGTH);
+		return new HashedPinVerifier(salt, hash, iterations);
+	}
+
+	/**
+	 * Returns the salt, hash and iteration count in a compact form for storage. Restore it with
+	 * {@link #fromEncoded(byte[])}.
+	 */
+	public byte[] getEncoded() {
+		byte[] encoded = new byte[ENCODED_LENGTH];
+		encoded[0] = ENCODING_VERSION;
+		encoded[1] = (byte) (mIterations >>> 24);
+		encoded[2] = (byte) (mIterations >>> 16);
+		encoded[3] = (byte) (mIterations >>> 8);
+		encoded[4] = (byte) mIterations;
+		System.arraycopy(mSalt, 0, encoded, 5, SALT_LENGTH);
+		System.arraycopy(mHash, 0, encoded, 5 + SALT_LENGTH, HASH_LENGTH);
+		return encoded;
+	}
+
+	public int getIterations() {
+		return mIterations;
+	}
+
+	@Override
+	public boolean verify(char[] pin, Cancellation cancellation) {
+		if (pin == null || pin.length == 0) {
+			return false;
+		}
+
+		byte[] hash = new byte[HASH_LENGTH];
+		try {
+			if (!derive(pin, mSalt, mIterations, hash, cancellation)) {
+				return false;
+			}
+			return constantTimeEquals(hash, mHash);
+		} finally {
+			Arrays.fill(hash, (byte) 0);
+		}
+	}
+
+	/**
+	 * Returns an iteration count making one verification take about the given time on this
+	 * device. This runs the hash for a little while, so call it on a background thread, e.g. once
+	 * when the pin is set.
+	 *
+	 * @param targetMillis The target verification time, in milliseconds.
+	 */
+	public static int calibrate(long targetMillis) {
+		final char[] pin = { '0', '0', '0', '0' };
+		final byte[] salt = new byte[SALT_LENGTH];
+		final byte[] hash = new byte[HASH_LENGTH];
+
+		// warm up, then double the work until it takes long enough to measure
+		derive(pin, salt, MIN_ITERATIONS, hash, NOT_CANCELABLE);
+		int iterations = MIN_ITERATIONS;
+		long elapsed;
+		while (true) {
+			final long start = System.nanoTime();
+			derive(pin, salt, iterations, hash, NOT_CANCELABLE);
+			elapsed = System.nanoTime() - start;
+			if (elapsed >= CALIBRATION_MIN_NANOS || iterations >= CALIBRATION_MAX_ITERATIONS) {
+				break;
+			}
+			iterations *= 2;
+		}
+
+		final double perIteration = (double) elapsed / iterations;
+		final double target = targetMillis * 1000000.0 / perIteration;
+		return (int) Math.max(MIN_ITERATIONS, Math.min(target, Integer.MAX_VALUE));
+	}
+
+	/*
+	 * PBKDF2 (RFC 2898) with HMAC-SHA1, producing a single block of HASH_LENGTH bytes. Returns
+	 * false if cancelled. The pin is encoded as UTF-8 into a temporary buffer that is wiped
+	 * afterwards, but SecretKeySpec keeps its own copy of those bytes and the Mac keeps state
+	 * derived from them, neither of which can be wiped; they are left to the garbage collector.
+	 */
+	private static boolean derive(char[] pin, byte[] salt, int iterations, byte[] out,
+			Cancellation cancellation) {
+		byte[] password = encodeUtf8(pin);
+		try {
+			Mac mac = Mac.getInstance(MAC_ALGORITHM);
+			mac.init(new SecretKeySpec(password, MAC_ALGORITHM));
+
+			// U1 = PRF(password, salt || INT(1))
+			byte[] u = new byte[HASH_LENGTH];
+			mac.update(salt);
+			mac.update(new byte[] { 0, 0, 0, 1 });
+			mac.doFinal(u, 0);
+			System.arraycopy(u, 0, out, 0, HASH_LENGTH);
+
+			// Uj = PRF(password, Uj-1), out = U1 ^ U2 ^ ... ^ Uc
+			for (int i = 1; i < iterations; i++) {
+				if (i % CANCELLATION_CHECK_INTERVAL == 0 && cancellation.isCanceled()) {
+					return false;
+				}
+				mac.update(u);
+				mac.doFinal(u, 0);
+				for (int j = 0; j < HASH_LENGTH; j++) {
+					out[j] ^= u[j];
+				}
+			}
+			return true;
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException(MAC_ALGORITHM + " is not available", e);
+		} finally {
+			Arrays.fill(password, (byte) 0);
+		}
+	}
+
+	private static byte[] encodeUtf8(char[] chars) {
+		int length = 0;
+		for (char c : chars) {
+			length += c < 0x80 ? 1 : c < 0x800 ? 2 : 3;
+		}
+
+		byte[] bytes = new byte[length];
+		int i = 0;
+		for (char c : chars) {
+			if (c < 0x80) {
+				bytes[i++] = (byte) c;
+			} else if (c < 0x800) {
+				bytes[i++] = (byte) (0xc0 | (c >> 6));
+				bytes[i++] = (byte) (0x80 | (c & 0x3f));
+			} else {
+				// pins are validated per char, so surrogates are encoded on their own
+				bytes[i++] = (byte) (0xe0 | (c >> 12));
+				bytes[i++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+				bytes[i++] = (byte) (0x80 | (c & 0x3f));
+			}
+		}
+		return bytes;
+	}
+
+	private static boolean constantTimeEquals(byte[] a, byte[] b) {
+		if (a.length != b.length) {
+			return false;
+		}
+		int diff = 0;
+		for (int i = 0; i < a.length; i++) {
+			diff |= a[i] ^ b[i];
+		}
+		return diff == 0;
+	}
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2013 Karakuri <karakuri.dev@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.karakuri.lib.pincodeview;
+
+/**
+ * A histogram of durations with fixed, power-of-two buckets. Bucket 0 holds durations under 1
+ * microsecond (1024ns), and each following bucket covers twice the range of the one before. The
+ * last bucket also holds everything longer. Recording a value does not allocate.
+ * <p>
+ * This class is not thread safe.
+ */
+public class LatencyHistogram {
+	/** The number of buckets. The last bucket starts at about 1 second. */
+	public static final int BUCKET_COUNT = 22;
+
+	private static final int FIRST_BUCKET_SHIFT = 10;
+
+	private final long[] mCounts = new long[BUCKET_COUNT];
+	private long mCount;
+	private long mTotal;
+	private long mMax;
+
+	/**
+	 * Record a duration, in nanoseconds. Negative durations are counted as zero.
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		mCounts[getBucket(nanos)]++;
+		mCount++;
+		mTotal += nanos;
+		if (nanos > mMax) {
+			mMax = nanos;
+		}
+	}
+
+	private static int getBucket(long nanos) {
+		final int bits = 64 - Long.numberOfLeadingZeros(nanos >>> FIRST_BUCKET_SHIFT);
+		return Math.min(bits, BUCKET_COUNT - 1);
+	}
+
+	/**
+	 * Returns the smallest duration, in nanoseconds, that falls in the given bucket.
+	 */
+	public static long getBucketLowerBound(int bucket) {
+		return bucket == 0 ? 0 : 1L << (FIRST_BUCKET_SHIFT + bucket - 1);
+	}
+
+	/**
+	 * Returns the number of durations recorded in the given bucket.
+	 */
+	public long getBucketCount(int bucket) {
+		return mCounts[bucket];
+	}
+
+	/**
+	 * Returns the number of durations recorded.
+	 */
+	public long getCount() {
+		return mCount;
+	}
+
+	/**
+	 * Returns the sum of the recorded durations, in nanoseconds.
+	 */
+	public long getTotal() {
+		return mTotal;
+	}
+
+	/**
+	 * Returns the longest recorded duration, in nanoseconds.
+	 */
+	public long getMax() {
+		return mMax;
+	}
+
+	/**
+	 * Returns the mean of the recorded durations, in nanoseconds, or 0 if nothing was recorded.
+	 */
+	public long getMean() {
+		return mCount == 0 ? 0 : mTotal / mCount;
+	}
+
+	/**
+	 * Returns an upper bound for the given percentile of the recorded durations, in nanoseconds.
+	 * This is the upper bound of the bucket containing the percentile, capped at the longest
+	 * recorded duration.
+	 *
+	 * @param percentile A value between 0 and 100.
+	 */
+	public long getPercentile(double percentile) {
+		if (mCount == 0) {
+			return 0;
+		}
+
+		final long rank = (long) Math.ceil(mCount * percentile / 100);
+		long seen = 0;
+		for (int i = 0; i < BUCKET_COUNT - 1; i++) {
+			seen += mCounts[i];
+			if (seen >= rank) {
+				return Math.min(getBucketLowerBound(i + 1) - 1, mMax);
+			}
+		}
+		return mMax;
+	}
+
+	/**
+	 * Clear all recorded durations.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			mCounts[i] = 0;
+		}
+		mCount = 0;
+		mTotal = 0;
+		mMax = 0;
+	}
+}
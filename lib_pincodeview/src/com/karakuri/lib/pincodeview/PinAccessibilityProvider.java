@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2013 Karakuri <karakuri.dev@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.karakuri.lib.pincodeview;
+
+import android.annotation.TargetApi;
+import android.graphics.Rect;
+import android.os.Build;
+import android.os.Bundle;
+import android.view.View;
+import android.view.ViewParent;
+import android.view.accessibility.AccessibilityEvent;
+import android.view.accessibility.AccessibilityNodeInfo;
+import android.view.accessibility.AccessibilityNodeProvider;
+
+/**
+ * Exposes a {@link PinCodeView} to accessibility services as a single password field, with one
+ * virtual child per indicator cell. The cells only say whether they are filled, never what was
+ * entered, and work the same in both render modes since they come from the view's cell geometry
+ * rather than from child views.
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+/*package*/ class PinAccessibilityProvider extends AccessibilityNodeProvider {
+	private final PinCodeView mView;
+	private final Rect mTempRect = new Rect();
+	private final int[] mTempLocation = new int[2];
+
+	// the cell with accessibility focus, or View.NO_ID
+	private int mFocusedCell = View.NO_ID;
+
+	public PinAccessibilityProvider(PinCodeView view) {
+		mView = view;
+	}
+
+	@Override
+	public AccessibilityNodeInfo createAccessibilityNodeInfo(int virtualViewId) {
+		if (virtualViewId == View.NO_ID) {
+			AccessibilityNodeInfo info = AccessibilityNodeInfo.obtain(mView);
+			mView.onInitializeAccessibilityNodeInfo(info);
+			final int count = mView.getMaxPinLength();
+			for (int i = 0; i < count; i++) {
+				info.addChild(mView, i);
+			}
+			return info;
+		}
+		if (virtualViewId < 0 || virtualViewId >= mView.getMaxPinLength()) {
+			return null;
+		}
+
+		AccessibilityNodeInfo info = AccessibilityNodeInfo.obtain(mView, virtualViewId);
+		info.setPackageName(mView.getContext().getPackageName());
+		info.setClassName(View.class.getName());
+		info.setParent(mView);
+		info.setContentDescription(mView.getCellDescription(virtualViewId));
+		info.setEnabled(mView.isEnabled());
+		info.setVisibleToUser(mView.isShown());
+
+		final Rect bounds = mTempRect;
+		mView.getCellBounds(virtualViewId, bounds);
+		info.setBoundsInParent(bounds);
+		mView.getLocationOnScreen(mTempLocation);
+		bounds.offset(mTempLocation[0] - mView.getScrollX(), mTempLocation[1] - mView.getScrollY());
+		info.setBoundsInScreen(bounds);
+
+		if (mFocusedCell == virtualViewId) {
+			info.setAccessibilityFocused(true);
+			info.addAction(AccessibilityNodeInfo.ACTION_CLEAR_ACCESSIBILITY_FOCUS);
+		} else {
+			info.addAction(AccessibilityNodeInfo.ACTION_ACCESSIBILITY_FOCUS);
+		}
+		info.addAction(AccessibilityNodeInfo.ACTION_CLICK);
+		return info;
+	}
+
+	@Override
+	public boolean performAction(int virtualViewId, int action, Bundle arguments) {
+		if (virtualViewId == View.NO_ID) {
+			return mView.performAccessibilityAction(action, arguments);
+		}
+		if (virtualViewId < 0 || virtualViewId >= mView.getMaxPinLength()) {
+			return false;
+		}
+
+		switch (action) {
+		case AccessibilityNodeInfo.ACTION_ACCESSIBILITY_FOCUS:
+			if (mFocusedCell == virtualViewId) {
+				return false;
+			}
+			mFocusedCell = virtualViewId;
+			sendEvent(virtualViewId, AccessibilityEvent.TYPE_VIEW_ACCESSIBILITY_FOCUSED);
+			return true;
+		case AccessibilityNodeInfo.ACTION_CLEAR_ACCESSIBILITY_FOCUS:
+			if (mFocusedCell != virtualViewId) {
+				return false;
+			}
+			mFocusedCell = View.NO_ID;
+			sendEvent(virtualViewId, AccessibilityEvent.TYPE_VIEW_ACCESSIBILITY_FOCUS_CLEARED);
+			return true;
+		case AccessibilityNodeInfo.ACTION_CLICK:
+			// entry always happens at the end of the pin, so any cell opens the input method
+			return mView.performClick();
+		}
+		return false;
+	}
+
+	/**
+	 * Forget the focused cell if it is no longer shown, e.g. after the maximum length changed.
+	 */
+	public void onCellCountChanged(int count) {
+		if (mFocusedCell >= count) {
+			mFocusedCell = View.NO_ID;
+		}
+	}
+
+	private void sendEvent(int virtualViewId, int eventType) {
+		final ViewParent parent = mView.getParent();
+		if (parent == null) {
+			return;
+		}
+
+		AccessibilityEvent event = AccessibilityEvent.obtain(eventType);
+		event.setPackageName(mView.getContext().getPackageName());
+		event.setClassName(View.class.getName());
+		event.setSource(mView, virtualViewId);
+		event.setEnabled(mView.isEnabled());
+		event.setContentDescription(mView.getCellDescription(virtualViewId));
+		parent.requestSendAccessibilityEvent(mView, event);
+	}
+}
@@ -0,0 +1,384 @@
+/*
+ * Copyright (C) 2013 Karakuri <karakuri.dev@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.karakuri.lib.pincodeview;
+
+import java.lang.reflect.Array;
+import java.nio.CharBuffer;
+
+import android.text.Editable;
+import android.text.InputFilter;
+import android.text.Selection;
+import android.text.Spanned;
+
+/**
+ * An {@link Editable} view of the {@link PinModel} of a {@link PinCodeView}, used by the key
+ * listeners and input connections. Edits go to the model, which drops characters that are not
+ * accepted or do not fit, so they never allocate.
+ * <p>
+ * Only what the key listeners and input connections need is supported: the selection is always a
+ * cursor at the end of the text, and other spans are kept in a small table without copying them
+ * from inserted text.
+ */
+/*package*/ class PinBuffer implements Editable {
+	private static final InputFilter[] NO_FILTERS = new InputFilter[0];
+	private static final int INITIAL_SPAN_CAPACITY = 4;
+
+	private static final int SPAN_START_POINT = 0x20;
+	private static final int SPAN_END_POINT = 0x02;
+
+	private final PinModel mModel;
+	private InputFilter[] mFilters = NO_FILTERS;
+	// holds the character of append(char), so typing a key does not allocate
+	private final char[] mAppendedChar = new char[1];
+	private final CharBuffer mAppendedText = CharBuffer.wrap(mAppendedChar);
+
+	private Object[] mSpans = new Object[INITIAL_SPAN_CAPACITY];
+	private int[] mSpanStarts = new int[INITIAL_SPAN_CAPACITY];
+	private int[] mSpanEnds = new int[INITIAL_SPAN_CAPACITY];
+	private int[] mSpanFlags = new int[INITIAL_SPAN_CAPACITY];
+	private int mSpanCount;
+
+	public PinBuffer(PinModel model) {
+		mModel = model;
+	}
+
+	public PinModel getModel() {
+		return mModel;
+	}
+
+	/**
+	 * Set the maximum length of the model. If the current text is truncated, the spans are moved
+	 * within it before the change is reported.
+	 */
+	public void setMaxLength(int maxLength) {
+		final int length = mModel.length();
+		// hold back the change event until the spans match the truncated text
+		mModel.beginBatchEdit();
+		mModel.setMaxLength(maxLength);
+		if (length > maxLength) {
+			adjustSpans(maxLength, length, 0);
+		}
+		mModel.endBatchEdit();
+	}
+
+	public void beginBatchEdit() {
+		mModel.beginBatchEdit();
+	}
+
+	public void endBatchEdit() {
+		mModel.endBatchEdit();
+	}
+
+	// CharSequence
+
+	@Override
+	public int length() {
+		return mModel.length();
+	}
+
+	@Override
+	public char charAt(int index) {
+		return mModel.charAt(index);
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		checkRange("subSequence", start, end);
+		char[] chars = new char[end - start];
+		mModel.getChars(start, end, chars, 0);
+		return new String(chars);
+	}
+
+	@Override
+	public String toString() {
+		return mModel.toString();
+	}
+
+	@Override
+	public void getChars(int start, int end, char[] dest, int destoff) {
+		mModel.getChars(start, end, dest, destoff);
+	}
+
+	private void checkRange(String operation, int start, int end) {
+		final int length = mModel.length();
+		if (start < 0 || end > length || start > end) {
+			throw new IndexOutOfBoundsException(operation + " " + start + " ... " + end
+					+ " out of 0 ... " + length);
+		}
+	}
+
+	// Editable
+
+	@Override
+	public PinBuffer replace(int st, int en, CharSequence source, int start, int end) {
+		checkRange("replace", st, en);
+
+		for (InputFilter filter : mFilters) {
+			CharSequence filtered = filter.filter(source, start, end, this, st, en);
+			if (filtered != null) {
+				source = filtered;
+				start = 0;
+				end = filtered.length();
+			}
+		}
+
+		// hold back the change event until the spans match the new text
+		mModel.beginBatchEdit();
+		final int count = mModel.replace(st, en, source, start, end);
+		if (count > 0 || en > st) {
+			adjustSpans(st, en, count);
+		}
+		mModel.endBatchEdit();
+		return this;
+	}
+
+	@Override
+	public PinBuffer replace(int st, int en, CharSequence text) {
+		return replace(st, en, text, 0, text.length());
+	}
+
+	@Override
+	public PinBuffer insert(int where, CharSequence text, int start, int end) {
+		return replace(where, where, text, start, end);
+	}
+
+	@Override
+	public PinBuffer insert(int where, CharSequence text) {
+		return replace(where, where, text, 0, text.length());
+	}
+
+	@Override
+	public PinBuffer delete(int st, int en) {
+		return replace(st, en, "", 0, 0);
+	}
+
+	@Override
+	public PinBuffer append(CharSequence text) {
+		final int length = mModel.length();
+		return replace(length, length, text, 0, text.length());
+	}
+
+	@Override
+	public PinBuffer append(CharSequence text, int start, int end) {
+		final int length = mModel.length();
+		return replace(length, length, text, start, end);
+	}
+
+	@Override
+	public PinBuffer append(char text) {
+		mAppendedChar[0] = text;
+		try {
+			return append(mAppendedText, 0, 1);
+		} finally {
+			mAppendedChar[0] = '\0';
+		}
+	}
+
+	@Override
+	public void clear() {
+		replace(0, mModel.length(), "", 0, 0);
+	}
+
+	@Override
+	public void clearSpans() {
+		for (int i = 0; i < mSpanCount; i++) {
+			mSpans[i] = null;
+		}
+		mSpanCount = 0;
+	}
+
+	@Override
+	public void setFilters(InputFilter[] filters) {
+		if (filters == null) {
+			throw new IllegalArgumentException();
+		}
+		mFilters = filters;
+	}
+
+	@Override
+	public InputFilter[] getFilters() {
+		return mFilters;
+	}
+
+	// Spannable
+
+	/*
+	 * The selection spans are not stored: the selection is always a cursor at the end of the text.
+	 */
+	private static boolean isSelection(Object what) {
+		return what == Selection.SELECTION_START || what == Selection.SELECTION_END;
+	}
+
+	@Override
+	public void setSpan(Object what, int start, int end, int flags) {
+		if (isSelection(what)) {
+			return;
+		}
+		checkRange("setSpan", start, end);
+
+		int index = indexOfSpan(what);
+		if (index < 0) {
+			if (mSpanCount == mSpans.length) {
+				growSpans();
+			}
+			index = mSpanCount++;
+			mSpans[index] = what;
+		}
+		mSpanStarts[index] = start;
+		mSpanEnds[index] = end;
+		mSpanFlags[index] = flags;
+	}
+
+	@Override
+	public void removeSpan(Object what) {
+		final int index = indexOfSpan(what);
+		if (index < 0) {
+			return;
+		}
+
+		final int moved = mSpanCount - index - 1;
+		System.arraycopy(mSpans, index + 1, mSpans, index, moved);
+		System.arraycopy(mSpanStarts, index + 1, mSpanStarts, index, moved);
+		System.arraycopy(mSpanEnds, index + 1, mSpanEnds, index, moved);
+		System.arraycopy(mSpanFlags, index + 1, mSpanFlags, index, moved);
+		mSpans[--mSpanCount] = null;
+	}
+
+	private int indexOfSpan(Object what) {
+		for (int i = 0; i < mSpanCount; i++) {
+			if (mSpans[i] == what) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private void growSpans() {
+		final int capacity = mSpans.length * 2;
+		Object[] spans = new Object[capacity];
+		int[] starts = new int[capacity];
+		int[] ends = new int[capacity];
+		int[] flags = new int[capacity];
+		System.arraycopy(mSpans, 0, spans, 0, mSpanCount);
+		System.arraycopy(mSpanStarts, 0, starts, 0, mSpanCount);
+		System.arraycopy(mSpanEnds, 0, ends, 0, mSpanCount);
+		System.arraycopy(mSpanFlags, 0, flags, 0, mSpanCount);
+		mSpans = spans;
+		mSpanStarts = starts;
+		mSpanEnds = ends;
+		mSpanFlags = flags;
+	}
+
+	/*
+	 * Move the span boundaries after replacing st ... en with count characters. Boundaries inside
+	 * the replaced range move to its start if they are marks, or past the new text if they are
+	 * points.
+	 */
+	private void adjustSpans(int st, int en, int count) {
+		final int delta = count - (en - st);
+		for (int i = 0; i < mSpanCount; i++) {
+			final int flags = mSpanFlags[i];
+			mSpanStarts[i] = adjustBoundary(mSpanStarts[i], st, en, count, delta,
+					(flags & SPAN_START_POINT) != 0);
+			mSpanEnds[i] = adjustBoundary(mSpanEnds[i], st, en, count, delta,
+					(flags & SPAN_END_POINT) != 0);
+		}
+	}
+
+	private static int adjustBoundary(int position, int st, int en, int count, int delta,
+			boolean isPoint) {
+		if (position < st) {
+			return position;
+		}
+		if (position > en) {
+			return position + delta;
+		}
+		return isPoint ? st + count : st;
+	}
+
+	// Spanned
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public <T> T[] getSpans(int queryStart, int queryEnd, Class<T> kind) {
+		int count = 0;
+		for (int i = 0; i < mSpanCount; i++) {
+			if (isSpanInRange(i, queryStart, queryEnd, kind)) {
+				count++;
+			}
+		}
+
+		T[] spans = (T[]) Array.newInstance(kind == null ? Object.class : kind, count);
+		int index = 0;
+		for (int i = 0; i < mSpanCount && index < count; i++) {
+			if (isSpanInRange(i, queryStart, queryEnd, kind)) {
+				spans[index++] = (T) mSpans[i];
+			}
+		}
+		return spans;
+	}
+
+	private boolean isSpanInRange(int index, int queryStart, int queryEnd, Class<?> kind) {
+		final int start = mSpanStarts[index];
+		final int end = mSpanEnds[index];
+		if (start > queryEnd || end < queryStart) {
+			return false;
+		}
+		if (start != end && queryStart != queryEnd && (start == queryEnd || end == queryStart)) {
+			return false;
+		}
+		return kind == null || kind.isInstance(mSpans[index]);
+	}
+
+	@Override
+	public int getSpanStart(Object what) {
+		if (isSelection(what)) {
+			return mModel.length();
+		}
+		final int index = indexOfSpan(what);
+		return index < 0 ? -1 : mSpanStarts[index];
+	}
+
+	@Override
+	public int getSpanEnd(Object what) {
+		if (isSelection(what)) {
+			return mModel.length();
+		}
+		final int index = indexOfSpan(what);
+		return index < 0 ? -1 : mSpanEnds[index];
+	}
+
+	@Override
+	public int getSpanFlags(Object what) {
+		if (isSelection(what)) {
+			return Spanned.SPAN_POINT_POINT;
+		}
+		final int index = indexOfSpan(what);
+		return index < 0 ? 0 : mSpanFlags[index];
+	}
+
+	@Override
+	public int nextSpanTransition(int start, int limit, @SuppressWarnings("rawtypes") Class kind) {
+		for (int i = 0; i < mSpanCount; i++) {
+			if (kind != null && !kind.isInstance(mSpans[i])) {
+				continue;
+			}
+			final int spanStart = mSpanStarts[i];
+			final int spanEnd = mSpanEnds[i];
+			if (spanStart > start && spanStart < limit) limit = spanStart;
+			if (spanEnd > start && spanEnd < limit) limit = spanEnd;
+		}
+		return limit;
+	}
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2013 Karakuri <karakuri.dev@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.karakuri.lib.pincodeview;
+
+import java.util.Arrays;
+
+/**
+ * The set of characters accepted in a pin, and how typed characters are normalized into it. ASCII
+ * characters are looked up in a precomputed table giving the character each one is entered as;
+ * other characters go through the {@link Character} class methods, or a binary search for custom
+ * sets.
+ * <p>
+ * This class does not depend on the Android framework.
+ */
+public final class PinCharset {
+	/**
+	 * Normalization flag: letters are accepted in either case, and entered in the case found in
+	 * the set.
+	 */
+	public static final int NORMALIZE_CASE = 1;
+	/**
+	 * Normalization flag: O is entered as 0, and I and L as 1, when the digit is in the set and the
+	 * letter is not, as in Crockford's base 32.
+	 */
+	public static final int NORMALIZE_LOOKALIKES = 2;
+
+	private static final int CLASS_DIGIT = 1;
+	private static final int CLASS_LETTER = 2;
+
+	private static final int ASCII_SIZE = 128;
+	// table value of characters that are not accepted; '\0' is never part of a pin
+	private static final char REJECTED = 0;
+
+	/** Accepts digits. */
+	public static final PinCharset NUMERIC = new PinCharset(CLASS_DIGIT, null, 0);
+	/** Accepts letters. */
+	public static final PinCharset ALPHA = new PinCharset(CLASS_LETTER, null, 0);
+	/** Accepts letters and digits. */
+	public static final PinCharset ALPHA_NUMERIC = new PinCharset(CLASS_DIGIT | CLASS_LETTER, null,
+			0);
+	/** Accepts hexadecimal digits, entering letters in upper case. */
+	public static final PinCharset HEX = of("0123456789ABCDEF", NORMALIZE_CASE);
+	/**
+	 * Accepts Crockford's base 32 digits, entering letters in upper case and O, I and L as the
+	 * digits they look like.
+	 */
+	public static final PinCharset CROCKFORD_BASE32 = of("0123456789ABCDEFGHJKMNPQRSTVWXYZ",
+			NORMALIZE_CASE | NORMALIZE_LOOKALIKES);
+
+	private final int mClasses;
+	// the characters of a custom set, sorted, or null for a set of character classes
+	private final char[] mChars;
+	private final int mFlags;
+	private final boolean mDigitsOnly;
+	// the character each ASCII character is entered as, or REJECTED
+	private final char[] mAscii = new char[ASCII_SIZE];
+
+	private PinCharset(int classes, char[] chars, int flags) {
+		mClasses = classes;
+		mChars = chars;
+		mFlags = flags;
+
+		boolean digitsOnly = true;
+		if (chars != null) {
+			for (char c : chars) {
+				digitsOnly &= Character.isDigit(c);
+			}
+		} else {
+			digitsOnly = classes == CLASS_DIGIT;
+		}
+		mDigitsOnly = digitsOnly;
+
+		for (char c = 0; c < ASCII_SIZE; c++) {
+			mAscii[c] = normalizeNonAscii(c);
+		}
+		if ((flags & NORMALIZE_LOOKALIKES) != 0) {
+			mapLookalike('O', '0');
+			mapLookalike('I', '1');
+			mapLookalike('L', '1');
+		}
+	}
+
+	/**
+	 * Returns a charset accepting the given characters, normalizing typed characters as given by
+	 * the flags.
+	 *
+	 * @param chars The accepted characters, in any order.
+	 * @param flags Any combination of {@link #NORMALIZE_CASE} and {@link #NORMALIZE_LOOKALIKES}, or
+	 *            0.
+	 */
+	public static PinCharset of(CharSequence chars, int flags) {
+		if (chars == null || chars.length() == 0) {
+			throw new IllegalArgumentException("chars must not be empty");
+		}
+
+		char[] sorted = new char[chars.length()];
+		for (int i = 0; i < sorted.length; i++) {
+			sorted[i] = chars.charAt(i);
+			if (sorted[i] == REJECTED) {
+				throw new IllegalArgumentException("chars must not contain '\\0'");
+			}
+		}
+		Arrays.sort(sorted);
+		return new PinCharset(0, sorted, flags);
+	}
+
+	private void mapLookalike(char letter, char digit) {
+		final char lower = Character.toLowerCase(letter);
+		if (mAscii[digit] == digit && mAscii[letter] == REJECTED) {
+			mAscii[letter] = digit;
+		}
+		if (mAscii[digit] == digit && mAscii[lower] == REJECTED) {
+			mAscii[lower] = digit;
+		}
+	}
+
+	/**
+	 * Returns true if the given character is accepted, possibly after normalizing it.
+	 */
+	public boolean accept(char c) {
+		return normalize(c) != REJECTED;
+	}
+
+	/**
+	 * Returns the character that c is entered as, which is c itself unless it is normalized, or
+	 * {@code '\0'} if it is not accepted.
+	 */
+	public char normalize(char c) {
+		if (c < ASCII_SIZE) {
+			return mAscii[c];
+		}
+		return normalizeNonAscii(c);
+	}
+
+	/**
+	 * Returns true if this charset only accepts digits, so a numeric keyboard can be shown.
+	 */
+	public boolean isDigitsOnly() {
+		return mDigitsOnly;
+	}
+
+	private char normalizeNonAscii(char c) {
+		if (mChars == null) {
+			if ((mClasses & CLASS_DIGIT) != 0 && Character.isDigit(c)) {
+				return c;
+			}
+			return (mClasses & CLASS_LETTER) != 0 && Character.isLetter(c) ? c : REJECTED;
+		}
+
+		if (c != REJECTED && Arrays.binarySearch(mChars, c) >= 0) {
+			return c;
+		}
+		if ((mFlags & NORMALIZE_CASE) != 0) {
+			final char upper = Character.toUpperCase(c);
+			if (upper != c && Arrays.binarySearch(mChars, upper) >= 0) {
+				return upper;
+			}
+			final char lower = Character.toLowerCase(c);
+			if (lower != c && Arrays.binarySearch(mChars, lower) >= 0) {
+				return lower;
+			}
+		}
+		return REJECTED;
+	}
+
+	/**
+	 * Returns the normalized accepted characters of source[start ... end), or null if they are all
+	 * accepted as they are. Nothing is allocated in that case.
+	 */
+	public CharSequence filter(CharSequence source, int start, int end) {
+		int i = start;
+		while (i < end) {
+			final char c = source.charAt(i);
+			if (c == REJECTED || normalize(c) != c) {
+				break;
+			}
+			i++;
+		}
+		if (i == end) {
+			return null; // keep source
+		}
+
+		// compact and normalize the accepted characters in a single pass
+		StringBuilder filtered = new StringBuilder(end - start);
+		filtered.append(source, start, i);
+		for (; i < end; i++) {
+			final char c = normalize(source.charAt(i));
+			if (c != REJECTED) {
+				filtered.append(c);
+			}
+		}
+		return filtered;
+	}
+}
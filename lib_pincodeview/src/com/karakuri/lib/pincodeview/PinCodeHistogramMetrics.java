@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2013 Karakuri <karakuri.dev@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.karakuri.lib.pincodeview;
+
+/**
+ * {@link PinCodeMetrics} that aggregates the timings of each event into a
+ * {@link LatencyHistogram}.
+ */
+public class PinCodeHistogramMetrics implements PinCodeMetrics {
+
+	/**
+	 * Interface definition for the source of time used to measure events.
+	 */
+	public interface Clock {
+		/**
+		 * Returns the current time in nanoseconds.
+		 */
+		public long nanoTime();
+	}
+
+	/** A {@link Clock} backed by {@link System#nanoTime()}. */
+	public static final Clock SYSTEM_CLOCK = new Clock() {
+		@Override
+		public long nanoTime() {
+			return System.nanoTime();
+		}
+	};
+
+	private final Clock mClock;
+	private final LatencyHistogram[] mHistograms = new LatencyHistogram[EVENT_COUNT];
+
+	public PinCodeHistogramMetrics() {
+		this(SYSTEM_CLOCK);
+	}
+
+	public PinCodeHistogramMetrics(Clock clock) {
+		if (clock == null) {
+			throw new IllegalArgumentException("clock must not be null");
+		}
+		mClock = clock;
+		for (int i = 0; i < EVENT_COUNT; i++) {
+			mHistograms[i] = new LatencyHistogram();
+		}
+	}
+
+	@Override
+	public long now() {
+		return mClock.nanoTime();
+	}
+
+	@Override
+	public void onEvent(int event, long durationNanos) {
+		mHistograms[event].record(durationNanos);
+	}
+
+	/**
+	 * Get the histogram of the timings recorded for the given event.
+	 *
+	 * @param event One of the {@link PinCodeMetrics} EVENT_* values.
+	 */
+	public LatencyHistogram getHistogram(int event) {
+		return mHistograms[event];
+	}
+
+	/**
+	 * Clear the timings recorded for all events.
+	 */
+	public void reset() {
+		for (LatencyHistogram histogram : mHistograms) {
+			histogram.reset();
+		}
+	}
+}
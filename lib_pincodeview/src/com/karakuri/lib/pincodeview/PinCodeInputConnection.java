@@ -20,46 +20,155 @@ import android.text.Editable;
 import android.text.method.KeyListener;
 import android.view.inputmethod.BaseInputConnection;
 import android.view.inputmethod.CompletionInfo;
+import android.view.inputmethod.CorrectionInfo;
 import android.view.inputmethod.ExtractedText;
 import android.view.inputmethod.ExtractedTextRequest;
-import android.widget.TextView;
-
+import android.view.inputmethod.InputConnection;
+
+/**
+ * The {@link InputConnection} of a {@link PinCodeView}. Edits go straight to the view's
+ * {@link PinBuffer}, through a {@link PinInputEditor}. Composing text is entered into the pin right
+ * away, and only the start of the composing region is remembered so the input method can still
+ * replace it. Text queries return a copy of the pin, since the input method may keep the result.
+ * <p>
+ * A view keeps one connection and resets it each time an input method connects. Key events and the
+ * methods of newer platform versions are left to {@link BaseInputConnection}.
+ */
 public class PinCodeInputConnection extends BaseInputConnection {
 	private static final String TAG = "PinCodeInputConnection";
 
 	private final PinCodeView mTargetView;
-	private final TextView mTextView;
+	private final PinBuffer mPinBuffer;
+	private final PinInputEditor mEditor;
 
 	public PinCodeInputConnection(PinCodeView targetView) {
-		super(targetView, true);
+		super(targetView, false);
 		mTargetView = targetView;
-		mTextView = targetView.getInputTextView();
+		mPinBuffer = targetView.getPinBuffer();
+		mEditor = new PinInputEditor(mPinBuffer) {
+			@Override
+			protected boolean isInputLocked() {
+				return mTargetView.isInputLocked();
+			}
+
+			@Override
+			protected PinCodeMetrics getMetrics() {
+				return mTargetView.getMetrics();
+			}
+		};
 	}
 
+	/**
+	 * Forget the state left by the previous input method: its composing region and any batch edit
+	 * it did not finish.
+	 */
+	public void reset() {
+		mEditor.reset();
+	}
+
+	@Override
 	public Editable getEditable() {
-		if (mTextView != null) {
-			return mTextView.getEditableText();
-		}
+		return mPinBuffer;
+	}
+
+	// text queries; the selection is always a cursor at the end of the pin
+
+	@Override
+	public CharSequence getTextBeforeCursor(int n, int flags) {
+		return mEditor.getTextBeforeCursor(n);
+	}
+
+	@Override
+	public CharSequence getTextAfterCursor(int n, int flags) {
+		return mEditor.getTextAfterCursor(n);
+	}
+
+	@Override
+	public CharSequence getSelectedText(int flags) {
 		return null;
 	}
 
-	public boolean beginBatchEdit() {
-		mTextView.beginBatchEdit();
+	@Override
+	public int getCursorCapsMode(int reqModes) {
+		return 0;
+	}
+
+	@Override
+	public ExtractedText getExtractedText(ExtractedTextRequest request, int flags) {
+		return null;
+	}
+
+	// edits
+
+	@Override
+	public boolean deleteSurroundingText(int beforeLength, int afterLength) {
+		return mEditor.deleteSurroundingText(beforeLength, afterLength);
+	}
+
+	/*
+	 * Added in API 24. Pins never hold surrogate pairs, so code points are characters.
+	 */
+	public boolean deleteSurroundingTextInCodePoints(int beforeLength, int afterLength) {
+		return mEditor.deleteSurroundingText(beforeLength, afterLength);
+	}
+
+	@Override
+	public boolean setComposingText(CharSequence text, int newCursorPosition) {
+		return mEditor.setComposingText(text);
+	}
+
+	@Override
+	public boolean setComposingRegion(int start, int end) {
+		return mEditor.setComposingRegion(start, end);
+	}
+
+	@Override
+	public boolean finishComposingText() {
+		return mEditor.finishComposingText();
+	}
+
+	@Override
+	public boolean commitText(CharSequence text, int newCursorPosition) {
+		return mEditor.commitText(text);
+	}
+
+	@Override
+	public boolean commitCompletion(CompletionInfo text) {
+		CharSequence completion = text.getText();
+		if (completion != null) {
+			mEditor.commitText(completion);
+		}
 		return true;
 	}
 
+	@Override
+	public boolean commitCorrection(CorrectionInfo correctionInfo) {
+		return false; // pins are not corrected
+	}
+
+	@Override
+	public boolean setSelection(int start, int end) {
+		return true; // the cursor stays at the end
+	}
+
+	@Override
+	public boolean beginBatchEdit() {
+		return mEditor.beginBatchEdit();
+	}
+
+	@Override
 	public boolean endBatchEdit() {
-		mTextView.endBatchEdit();
-		return true;
+		return mEditor.endBatchEdit();
 	}
 
+	// actions
+
+	@Override
 	public boolean clearMetaKeyStates(int states) {
-		final Editable content = getEditable();
-		if (content == null) return false;
 		KeyListener kl = mTargetView.getKeyListener();
 		if (kl != null) {
 			try {
-				kl.clearMetaKeyState(mTargetView, content, states);
+				kl.clearMetaKeyState(mTargetView, mPinBuffer, states);
 			} catch (AbstractMethodError e) {
 				// This is an old listener that doesn't implement the
 				// new method.
@@ -68,48 +177,28 @@ public class PinCodeInputConnection extends BaseInputConnection {
 		return true;
 	}
 
-	public boolean commitCompletion(CompletionInfo text) {
-		mTextView.beginBatchEdit();
-		mTextView.onCommitCompletion(text);
-		mTextView.endBatchEdit();
-		return true;
-	}
-
+	@Override
 	public boolean performEditorAction(int actionCode) {
 		mTargetView.onEditorAction(actionCode);
 		return true;
 	}
 
+	@Override
 	public boolean performContextMenuAction(int id) {
-		mTextView.beginBatchEdit();
-		mTextView.onTextContextMenuItem(id);
-		mTextView.endBatchEdit();
+		mPinBuffer.beginBatchEdit();
+		mTargetView.onTextContextMenuItem(id);
+		mPinBuffer.endBatchEdit();
 		return true;
 	}
 
-	public ExtractedText getExtractedText(ExtractedTextRequest request, int flags) {
-		return null;
-	}
-
+	@Override
 	public boolean performPrivateCommand(String action, Bundle data) {
 		mTargetView.onPrivateIMECommand(action, data);
 		return true;
 	}
 
 	@Override
-	public boolean commitText(CharSequence text, int newCursorPosition) {
-		if (mTextView == null) {
-			return super.commitText(text, newCursorPosition);
-		}
-
-		CharSequence errorBefore = mTextView.getError();
-		boolean success = super.commitText(text, newCursorPosition);
-		CharSequence errorAfter = mTextView.getError();
-
-		if (errorAfter != null && errorBefore == errorAfter) {
-			mTextView.setError(null, null);
-		}
-
-		return success;
+	public boolean reportFullscreenMode(boolean enabled) {
+		return true;
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2013 Karakuri <karakuri.dev@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.karakuri.lib.pincodeview;
+
+/**
+ * Interface definition for a callback receiving the timings of the work done by a
+ * {@link PinCodeView}. When no metrics are set on the view, nothing is timed.
+ * <p>
+ * Callbacks happen on the main thread, in the middle of input handling, so implementations should
+ * return quickly and avoid allocating.
+ *
+ * @see PinCodeView#setMetrics(PinCodeMetrics)
+ * @see PinCodeHistogramMetrics
+ */
+public interface PinCodeMetrics {
+	/** Handling of a key event, including the edit and the indicator update it causes. */
+	public static final int EVENT_KEY_DOWN = 0;
+	/** Text committed by the input method, including the indicator update it causes. */
+	public static final int EVENT_COMMIT_TEXT = 1;
+	/** Updating the indicators after the pin changed. */
+	public static final int EVENT_UPDATE_INDICATORS = 2;
+	/** Creating the input connection for the input method. */
+	public static final int EVENT_CREATE_INPUT_CONNECTION = 3;
+	/** The number of EVENT_* values. */
+	public static final int EVENT_COUNT = 4;
+
+	/**
+	 * Returns the current time in nanoseconds. Only differences between two values are used.
+	 */
+	public long now();
+
+	/**
+	 * Called when an event has been handled.
+	 *
+	 * @param event One of the EVENT_* values.
+	 * @param durationNanos The time taken to handle the event, in nanoseconds.
+	 */
+	public void onEvent(int event, long durationNanos);
+}
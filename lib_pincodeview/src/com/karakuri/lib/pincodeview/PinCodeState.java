@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2013 Karakuri <karakuri.dev@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.karakuri.lib.pincodeview;
+
+import java.util.Arrays;
+
+/**
+ * Holds the pin, the maximum length and the input type or charset of one item in a list of
+ * {@link PinCodeView}s, so a recycled view can be bound to it with
+ * {@link PinCodeView#bind(PinCodeState)}. While bound, every edit made in the view is copied back
+ * to the state.
+ * <p>
+ * The pin is kept in a {@code char[]} sized to the maximum length, so copying it back and forth
+ * does not allocate. This class does not depend on the Android framework.
+ */
+public class PinCodeState {
+	// PinCodeView.INPUT_TYPE_CUSTOM, kept here so this class compiles without the view
+	private static final int INPUT_TYPE_CUSTOM = 4;
+
+	private char[] mChars;
+	private int mLength;
+	private int mInputType;
+	// only set for PinCodeView.INPUT_TYPE_CUSTOM
+	private PinCharset mCharset;
+
+	// read by PinCodeView when binding
+	private final CharSequence mText = new CharSequence() {
+		@Override
+		public int length() {
+			return mLength;
+		}
+
+		@Override
+		public char charAt(int index) {
+			return mChars[index];
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			return new String(mChars, start, end - start);
+		}
+
+		@Override
+		public String toString() {
+			return new String(mChars, 0, mLength);
+		}
+	};
+
+	/**
+	 * @param maxPinLength The maximum pin length, see {@link PinCodeView#setMaxPinLength(int)}.
+	 * @param inputType One of {@link PinCodeView#INPUT_TYPE_NUMERIC},
+	 *            {@link PinCodeView#INPUT_TYPE_ALPHA} or
+	 *            {@link PinCodeView#INPUT_TYPE_ALPHA_NUMERIC}. A custom charset is given with
+	 *            {@link #PinCodeState(int, PinCharset)} instead.
+	 */
+	public PinCodeState(int maxPinLength, int inputType) {
+		if (maxPinLength < 0) {
+			throw new IllegalArgumentException("maxPinLength must not be negative");
+		}
+		mChars = new char[maxPinLength];
+		setInputType(inputType);
+	}
+
+	/**
+	 * @param maxPinLength The maximum pin length, see {@link PinCodeView#setMaxPinLength(int)}.
+	 * @param charset The characters accepted, see {@link PinCodeView#setCharset(PinCharset)}.
+	 */
+	public PinCodeState(int maxPinLength, PinCharset charset) {
+		if (maxPinLength < 0) {
+			throw new IllegalArgumentException("maxPinLength must not be negative");
+		}
+		mChars = new char[maxPinLength];
+		setCharset(charset);
+	}
+
+	/**
+	 * Set the maximum pin length. The pin is truncated if it exceeds the new maximum.
+	 */
+	public void setMaxPinLength(int maxPinLength) {
+		if (maxPinLength < 0) {
+			throw new IllegalArgumentException("maxPinLength must not be negative");
+		}
+		if (maxPinLength != mChars.length) {
+			char[] chars = new char[maxPinLength];
+			mLength = Math.min(mLength, maxPinLength);
+			System.arraycopy(mChars, 0, chars, 0, mLength);
+			Arrays.fill(mChars, '\0');
+			mChars = chars;
+		}
+	}
+
+	public int getMaxPinLength() {
+		return mChars.length;
+	}
+
+	/**
+	 * Set the input type. The pin is kept as it is, but characters that the new type does not
+	 * accept are dropped when it is bound.
+	 *
+	 * @throws IllegalArgumentException for {@link PinCodeView#INPUT_TYPE_CUSTOM}, which is set
+	 *             with {@link #setCharset(PinCharset)}.
+	 */
+	public void setInputType(int inputType) {
+		if (inputType == INPUT_TYPE_CUSTOM) {
+			throw new IllegalArgumentException("INPUT_TYPE_CUSTOM is set with "
+					+ "setCharset(PinCharset)");
+		}
+		mInputType = inputType;
+		mCharset = null;
+	}
+
+	public int getInputType() {
+		return mInputType;
+	}
+
+	/**
+	 * Accept only the characters of the given charset. This sets the input type to
+	 * {@link PinCodeView#INPUT_TYPE_CUSTOM}. The pin is kept as it is, but characters that the
+	 * charset does not accept are dropped when it is bound.
+	 */
+	public void setCharset(PinCharset charset) {
+		if (charset == null) {
+			throw new IllegalArgumentException("charset must not be null");
+		}
+		mInputType = INPUT_TYPE_CUSTOM;
+		mCharset = charset;
+	}
+
+	/**
+	 * Get the charset set with {@link #setCharset(PinCharset)}, or null if the input type is not
+	 * {@link PinCodeView#INPUT_TYPE_CUSTOM}.
+	 */
+	public PinCharset getCharset() {
+		return mCharset;
+	}
+
+	public int getPinLength() {
+		return mLength;
+	}
+
+	public boolean isPinFilled() {
+		return mLength == mChars.length;
+	}
+
+	/**
+	 * Copy the pin into dest, starting at index 0.
+	 *
+	 * @return The length of the pin copied.
+	 * @throws IndexOutOfBoundsException if dest is shorter than the pin.
+	 */
+	public int getPin(char[] dest) {
+		if (dest.length < mLength) {
+			throw new IndexOutOfBoundsException("dest length " + dest.length
+					+ " is shorter than the pin");
+		}
+		System.arraycopy(mChars, 0, dest, 0, mLength);
+		return mLength;
+	}
+
+	/**
+	 * Clear the pin and zero-fill its storage. A view bound to this state is not updated until it
+	 * is bound again.
+	 */
+	public void clearAndWipe() {
+		Arrays.fill(mChars, '\0');
+		mLength = 0;
+	}
+
+	/*package*/ CharSequence getText() {
+		return mText;
+	}
+
+	/*
+	 * Copy the pin and the maximum length of the model.
+	 */
+	/*package*/ void copyFrom(PinModel model) {
+		setMaxPinLength(model.getMaxLength());
+		final int length = model.length();
+		model.getChars(0, length, mChars, 0);
+		if (length < mLength) {
+			Arrays.fill(mChars, length, mLength, '\0');
+		}
+		mLength = length;
+	}
+}
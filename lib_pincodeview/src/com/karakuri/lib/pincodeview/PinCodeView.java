@@ -15,31 +15,40 @@ package com.karakuri.lib.pincodeview;
 
 import android.annotation.SuppressLint;
 import android.annotation.TargetApi;
+import android.content.ClipData;
 import android.content.Context;
-import android.content.res.TypedArray;
+import android.content.res.Resources;
+import android.graphics.Canvas;
+import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Parcel;
 import android.os.Parcelable;
 import android.os.SystemClock;
-import android.text.Editable;
-import android.text.InputFilter;
-import android.text.Selection;
-import android.text.TextUtils;
-import android.text.TextWatcher;
 import android.text.method.KeyListener;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.view.KeyCharacterMap;
 import android.view.KeyEvent;
 import android.view.View;
+import android.view.accessibility.AccessibilityEvent;
+import android.view.accessibility.AccessibilityManager;
+import android.view.accessibility.AccessibilityNodeInfo;
+import android.view.accessibility.AccessibilityNodeProvider;
 import android.view.inputmethod.EditorInfo;
 import android.view.inputmethod.InputConnection;
 import android.view.inputmethod.InputMethodManager;
+import android.widget.EditText;
 import android.widget.ImageView;
 import android.widget.LinearLayout;
-import android.widget.TextView;
+
+import java.nio.CharBuffer;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 import com.karakuri.lib.pincodeview.PinKeyListener.Type;
 
@@ -48,8 +57,12 @@ import com.karakuri.lib.pincodeview.PinKeyListener.Type;
  */
 public class PinCodeView extends LinearLayout {
 	private static final String TAG = "PinCodeView";
+	// a library's BuildConfig.DEBUG is true in every build the app gets, so logging is a constant
+	private static final boolean DEBUG = false;
 
-	private static final int DEFAULT_PIN_LENGTH = 4;
+	private static final int MAX_POOLED_INDICATORS = 8;
+	// changes within this time are announced to accessibility services together
+	private static final long ANNOUNCEMENT_DELAY = 100;
 
 	/* values matching enum for R.styleable.PinCodeView_inputType */
 	/** Input type for pins composed only of numbers. */
@@ -58,16 +71,108 @@ public class PinCodeView extends LinearLayout {
 	public static final int INPUT_TYPE_ALPHA = 2;
 	/** Input type for pins composed of letters and numbers. */
 	public static final int INPUT_TYPE_ALPHA_NUMERIC = 3;
-
-	private TextView mPinText;
+	/** Input type for pins of a custom {@link PinCharset}, see {@link #setCharset(PinCharset)}. */
+	public static final int INPUT_TYPE_CUSTOM = 4;
+
+	/* values matching enum for R.styleable.PinCodeView_pinRenderMode */
+	/** Render mode where each pin indicator is a separate child view. */
+	public static final int RENDER_MODE_VIEWS = 0;
+	/** Render mode where this view draws all pin indicators itself, without child views. */
+	public static final int RENDER_MODE_CANVAS = 1;
+
+	/* values matching enum for R.styleable.PinCodeView_pinSaveMode */
+	/** Save mode where the pin is kept in saved instance state as it is. */
+	public static final int SAVE_PIN_PLAIN = 0;
+	/**
+	 * Save mode where the pin is kept in saved instance state encrypted with a key that only lives
+	 * as long as the process, so it survives configuration changes but not process death.
+	 */
+	public static final int SAVE_PIN_ENCRYPTED = 1;
+	/** Save mode where the pin is not kept in saved instance state. */
+	public static final int SAVE_PIN_NONE = 2;
+
+	/* indicator state flags; drawable states in RENDER_MODE_CANVAS are indexed by these */
+	private static final int INDICATOR_STATE_EMPTY = 1;
+	private static final int INDICATOR_STATE_ACTIVE = 2;
+	private static final int[][] INDICATOR_STATE_SETS = {
+			{ android.R.attr.state_enabled },
+			{ android.R.attr.state_enabled, android.R.attr.state_empty },
+			{ android.R.attr.state_enabled, android.R.attr.state_active },
+			{ android.R.attr.state_enabled, android.R.attr.state_empty,
+					android.R.attr.state_active } };
+
+	private PinModel mPinModel;
+	private PinBuffer mPinBuffer;
+	private PinKeyListener mKeyListener;
+	// one of the INPUT_TYPE_* values, for mKeyListener
+	private int mInputType;
+	// the listener of the last custom charset, used by INPUT_TYPE_CUSTOM
+	private PinKeyListener mCustomKeyListener;
 	private int mMaxPinLength;
 	private Drawable mIndicatorDrawable;
 	private Drawable mIndicatorBackground;
+	private int mRenderMode = RENDER_MODE_VIEWS;
+	private int mCellSize;
+	private int mCellSpacing;
+	private float mCellAspectRatio;
+	// cell geometry, measured in onMeasure and positioned in onLayout
+	private int mCellWidth;
+	private int mCellHeight;
+	private int mCellsLeft;
+	private int mCellsTop;
+	private final Rect mTempRect = new Rect();
+	// pin length last shown by the indicators, used to find the indicators that need updating
+	private int mIndicatorLength;
+	// indicators removed by a shorter pin length, reused when it grows again
+	private final ArrayList<PinIndicator> mIndicatorPool = new ArrayList<PinIndicator>();
+
+	private PinFeedbackAnimator mFeedbackAnimator;
+	private int mFeedbackDuration;
+
+	private PinCodeMetrics mMetrics;
+
+	private AccessibilityManager mAccessibilityManager;
+	private PinAccessibilityProvider mAccessibilityProvider;
+	private boolean mAnnouncementPending;
+
+	private int mPinSaveMode = SAVE_PIN_PLAIN;
+	// the last state saved, so its copy of the pin can be wiped
+	private SavedState mSavedState;
+
+	/* reasons for blocking edits, see isInputLocked() */
+	private static final int INPUT_LOCK_VERIFYING = 1;
+	private static final int INPUT_LOCK_LOCKOUT = 2;
+
+	private int mInputLocks;
+	private PinVerifier mPinVerifier;
+	private Executor mVerifierExecutor;
+	private boolean mLockInputWhileVerifying;
+	private PinVerification mVerification;
+	private PinLockout mPinLockout;
+	// the lockout whose file is being read in the background, if any
+	private PinLockout mLoadingLockout;
+	private OnPinChangedListener mOnPinChangedListener;
+	// pin length when the pending change notification was scheduled, or -1 if there is none
+	private int mPendingChangeOldLength = -1;
+	private final RepeatedChar mRepeatedChar = new RepeatedChar();
+
+	private PinCodeState mBoundState;
+	// set while bind() and unbind() edit the pin
+	private boolean mBinding;
+	// set while onRestoreInstanceState() puts back the saved pin
+	private boolean mRestoring;
+	private OnPinCompleteListener mOnPinCompleteListener;
+	private OnPinVerifiedListener mOnPinVerifiedListener;
+	private OnLockoutChangeListener mOnLockoutChangeListener;
 
 	// for backwards compatible hasOnClickListeners
 	private OnClickListener mOnClickListener;
 
 	private InputContentInfo mInputContentInfo;
+	// the configuration last applied, to skip applying it again, or null once a setter it covers
+	// has been called since
+	private PinCodeViewConfig mConfig;
+	private PinCodeInputConnection mInputConnection;
 
 	private static class InputContentInfo {
 		int inputType;
@@ -95,8 +200,66 @@ public class PinCodeView extends LinearLayout {
 		public boolean onEditorAction(PinCodeView view, int actionId, KeyEvent event);
 	}
 
+	/**
+	 * Interface definition for a callback to be invoked when the pin changes. Changes are coalesced
+	 * so the callback runs at most once per frame, however many edits were made in between.
+	 */
+	public interface OnPinChangedListener {
+		/**
+		 * Called on the main thread, before the next frame is drawn, after the pin has changed.
+		 *
+		 * @param view The view whose pin changed.
+		 * @param oldLength The length of the pin when it was last reported.
+		 * @param newLength The current length of the pin.
+		 * @param filled true if the pin has reached the maximum length.
+		 */
+		public void onPinChanged(PinCodeView view, int oldLength, int newLength, boolean filled);
+	}
+
+	/**
+	 * Interface definition for a callback to be invoked when the pin reaches the maximum length.
+	 */
+	public interface OnPinCompleteListener {
+		/**
+		 * Called on the main thread when the pin has been filled.
+		 *
+		 * @param view The view whose pin was filled.
+		 */
+		public void onPinComplete(PinCodeView view);
+	}
+
+	/**
+	 * Interface definition for a callback to be invoked with the result of a {@link PinVerifier}.
+	 */
+	public interface OnPinVerifiedListener {
+		/**
+		 * Called on the main thread when the verification of the current pin has finished. Results
+		 * of verifications superseded by a later edit are never reported, and neither are pins left
+		 * unchecked because a lockout started in the meantime; the
+		 * {@link OnLockoutChangeListener} is called for those.
+		 *
+		 * @param view The view whose pin was verified.
+		 * @param verified The result returned by the verifier.
+		 */
+		public void onPinVerified(PinCodeView view, boolean verified);
+	}
+
+	/**
+	 * Interface definition for a callback to be invoked when a {@link PinLockout} starts or ends
+	 * locking out input.
+	 */
+	public interface OnLockoutChangeListener {
+		/**
+		 * Called on the main thread when a lockout starts, is extended, or ends.
+		 *
+		 * @param view The view whose input is locked out.
+		 * @param remainingMillis The time until input is allowed again, or 0 if the lockout ended.
+		 */
+		public void onLockoutChanged(PinCodeView view, long remainingMillis);
+	}
+
 	public PinCodeView(Context context) {
-		this(context, null);
+		this(context, (AttributeSet) null);
 	}
 
 	public PinCodeView(Context context, AttributeSet attrs) {
@@ -110,115 +273,473 @@ public class PinCodeView extends LinearLayout {
 		init(context, attrs, defStyle);
 	}
 
-	private void init(Context context, AttributeSet attrs, int defStyle) {
-		Log.d(TAG, "[init]");
-		mInputContentInfo = new InputContentInfo();
+	/**
+	 * Create a view with a configuration resolved beforehand, e.g. with
+	 * {@link PinCodeViewConfig#fromStyle(Context, int)}, so the style is not resolved again.
+	 */
+	public PinCodeView(Context context, PinCodeViewConfig config) {
+		super(context);
+		init(config);
+	}
 
-		int maxPinLength = DEFAULT_PIN_LENGTH;
-		int inputType = INPUT_TYPE_NUMERIC;
-		int imeOptions = EditorInfo.TYPE_NULL;
+	private void init(Context context, AttributeSet attrs, int defStyle) {
+		init(PinCodeViewConfig.obtain(context, attrs, defStyle));
+	}
 
-		TypedArray a = context.obtainStyledAttributes(attrs, R.styleable.PinCodeView, defStyle, 0);
-		try {
-			final int N = a.getIndexCount();
-			for (int i = 0; i < N; i++) {
-				int attr = a.getIndex(i);
-
-				switch (attr) {
-				case R.styleable.PinCodeView_pinLength:
-					maxPinLength = a.getInt(attr, maxPinLength);
-					break;
-				case R.styleable.PinCodeView_inputType:
-					inputType = a.getInt(attr, inputType);
-					break;
-				case R.styleable.PinCodeView_android_imeOptions:
-					imeOptions = a.getInt(attr, imeOptions);
-					break;
-				case R.styleable.PinCodeView_android_imeActionLabel:
-					mInputContentInfo.imeActionLabel = a.getText(attr);
-					break;
-				case R.styleable.PinCodeView_android_imeActionId:
-					mInputContentInfo.imeActionId = a.getInt(attr, 0);
-					break;
-				case R.styleable.PinCodeView_pinIndicatorDrawable:
-					mIndicatorDrawable = a.getDrawable(attr);
-					break;
-				case R.styleable.PinCodeView_pinIndicatorBackground:
-					mIndicatorBackground = a.getDrawable(attr);
-					break;
-				}
-			}
-		} finally {
-			a.recycle();
-		}
+	private void init(PinCodeViewConfig config) {
+		if (DEBUG) Log.d(TAG, "[init]");
+		mInputContentInfo = new InputContentInfo();
 
-		mPinText = new TextView(context);
-		mPinText.addTextChangedListener(mPinTextWatcher);
+		mPinModel = new PinModel(0);
+		mPinModel.setOnPinChangeListener(mPinChangeListener);
+		mPinBuffer = new PinBuffer(mPinModel);
+		mFeedbackAnimator = new PinFeedbackAnimator(this);
+		mAccessibilityManager = (AccessibilityManager) getContext().getSystemService(
+				Context.ACCESSIBILITY_SERVICE);
 
-		setInputType(inputType);
-		setImeOptions(imeOptions);
-		setMaxPinLength(maxPinLength);
+		applyConfig(config);
 
 		setClickable(true);
 		setFocusableInTouchMode(true);
 	}
 
-	private TextWatcher mPinTextWatcher = new TextWatcher() {
+	/**
+	 * Apply every setting of the given configuration to this view. The pin is kept, but it will be
+	 * truncated if it exceeds the new maximum length. Applying the configuration that was applied
+	 * last does nothing, unless one of the settings it covers was changed since, e.g. by a setter
+	 * or by {@link #bind(PinCodeState)}.
+	 */
+	public void applyConfig(PinCodeViewConfig config) {
+		if (config == null) {
+			throw new IllegalArgumentException("config must not be null");
+		}
+		if (config == mConfig) {
+			return;
+		}
 
-		@Override
-		public void onTextChanged(CharSequence s, int start, int before, int count) {}
+		mInputContentInfo.imeActionLabel = config.getImeActionLabel();
+		mInputContentInfo.imeActionId = config.getImeActionId();
+		setImeOptions(config.getImeOptions());
+		if (config.getInputType() == INPUT_TYPE_CUSTOM && config.getCharset() != null) {
+			setCharset(config.getCharset());
+		} else {
+			setInputType(config.getInputType());
+		}
+		setPinSaveMode(config.getPinSaveMode());
+		setFillAnimationEnabled(config.isFillAnimationEnabled());
+		setFeedbackDuration(config.getFeedbackDuration());
+		setShakeDistance(config.getShakeDistance());
+
+		// drawables and the render mode first, so the indicators are only created once
+		final Resources res = getResources();
+		setPinIndicatorDrawable(config.newIndicatorDrawable(res));
+		setPinIndicatorBackground(config.newIndicatorBackground(res));
+		setRenderMode(config.getRenderMode());
+		setCellSize(config.getCellSize());
+		setCellSpacing(config.getCellSpacing());
+		setCellAspectRatio(config.getCellAspectRatio());
+		setMaxPinLength(config.getMaxPinLength());
+		mConfig = config;
+	}
 
-		@Override
-		public void beforeTextChanged(CharSequence s, int start, int count, int after) {}
+	private PinModel.OnPinChangeListener mPinChangeListener = new PinModel.OnPinChangeListener() {
 
 		@Override
-		public void afterTextChanged(Editable s) {
-			Log.d(TAG, String.format("[afterTextChanged] s = \"%s\"", s));
+		public void onPinChanged(PinModel model, int oldLength, int newLength) {
+			if (DEBUG) Log.d(TAG, "[onPinChanged] " + oldLength + " -> " + newLength);
 			updateIndicators();
+			if (mBinding) {
+				return; // the pin came from the bound state, nobody needs to hear about it
+			}
+			if (mBoundState != null) {
+				mBoundState.copyFrom(model);
+			}
+			schedulePinChanged(oldLength);
+			scheduleAnnouncement();
+
+			// the latest entry wins over any verification still in flight
+			cancelVerification();
+			// a restored pin was completed and verified before it was saved
+			if (model.isFilled() && newLength > 0 && !mRestoring) {
+				onPinComplete();
+			}
 		}
 	};
 
-	@SuppressWarnings("deprecation")
 	@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
-	private void createChildViews() {
-		removeAllViews();
+	private void schedulePinChanged(int oldLength) {
+		if (mOnPinChangedListener == null || mPendingChangeOldLength >= 0) {
+			return;
+		}
 
-		Context context = getContext();
-		LayoutParams params = new LayoutParams(0, LayoutParams.WRAP_CONTENT, 1);
-		for (int i = 0; i < mMaxPinLength; i++) {
-			PinIndicator child = new PinIndicator(context);
-			child.setImageDrawable(mIndicatorDrawable);
+		mPendingChangeOldLength = oldLength;
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+			// runs with the Choreographer's animation callbacks of the next frame
+			postOnAnimation(mDispatchPinChanged);
+		} else {
+			post(mDispatchPinChanged);
+		}
+	}
+
+	/*
+	 * Drop the pending change notification, e.g. when the pin it was about is replaced by another.
+	 */
+	private void cancelPinChanged() {
+		if (mPendingChangeOldLength >= 0) {
+			mPendingChangeOldLength = -1;
+			removeCallbacks(mDispatchPinChanged);
+		}
+	}
+
+	private final Runnable mDispatchPinChanged = new Runnable() {
+		@Override
+		public void run() {
+			final int oldLength = mPendingChangeOldLength;
+			mPendingChangeOldLength = -1;
+			if (oldLength >= 0 && mOnPinChangedListener != null) {
+				mOnPinChangedListener.onPinChanged(PinCodeView.this, oldLength, getPinLength(),
+						isPinFilled());
+			}
+		}
+	};
+
+	/*
+	 * Announce the number of characters entered once the pin stops changing, so a burst of edits
+	 * such as a paste gives a single announcement.
+	 */
+	private void scheduleAnnouncement() {
+		if (mAnnouncementPending || mAccessibilityManager == null
+				|| !mAccessibilityManager.isEnabled()) {
+			return;
+		}
+		mAnnouncementPending = true;
+		postDelayed(mAnnouncePin, ANNOUNCEMENT_DELAY);
+	}
+
+	private void cancelAnnouncement() {
+		if (mAnnouncementPending) {
+			mAnnouncementPending = false;
+			removeCallbacks(mAnnouncePin);
+		}
+	}
+
+	private final Runnable mAnnouncePin = new Runnable() {
+		@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+		@Override
+		public void run() {
+			mAnnouncementPending = false;
+			if (!mAccessibilityManager.isEnabled()) {
+				return;
+			}
 			if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
-				child.setBackground(mIndicatorBackground);
+				announceForAccessibility(getProgressDescription());
 			} else {
-				child.setBackgroundDrawable(mIndicatorBackground);
+				// filled in by dispatchPopulateAccessibilityEvent
+				sendAccessibilityEvent(AccessibilityEvent.TYPE_VIEW_TEXT_CHANGED);
 			}
+		}
+	};
 
-			addView(child, params);
+	private void onPinComplete() {
+		if (mOnPinCompleteListener != null) {
+			mOnPinCompleteListener.onPinComplete(this);
+		}
+		// the listener may have edited the pin
+		if (mPinVerifier != null && mPinModel.isFilled() && !hasInputLock(INPUT_LOCK_LOCKOUT)) {
+			startVerification();
 		}
+	}
+
+	private void startVerification() {
+		char[] pin = new char[mPinModel.length()];
+		mPinModel.getChars(0, pin.length, pin, 0);
 
-		updateIndicators();
+		mVerification = new PinVerification(mPinVerifier, mPinLockout, mVerificationCallback, pin);
+		if (mLockInputWhileVerifying) {
+			addInputLock(INPUT_LOCK_VERIFYING);
+		}
+		try {
+			mVerification.start(mVerifierExecutor);
+		} catch (RejectedExecutionException e) {
+			// e.g. the app shut the executor down; the verification will never run
+			Log.w(TAG, "The verifier executor rejected the verification", e);
+			Arrays.fill(pin, '\0');
+			mVerification = null;
+			removeInputLock(INPUT_LOCK_VERIFYING);
+		}
 	}
 
-	private void updateIndicators() {
-		final int length = mPinText.getText().length();
-		for (int i = 0; i < mMaxPinLength; i++) {
-			View child = getChildAt(i);
-			if (!(child instanceof PinIndicator)) {
-				throw new IllegalStateException("PinCodeView cannot have other child views.");
+	private final PinVerification.Callback mVerificationCallback = new PinVerification.Callback() {
+
+		@Override
+		public void onVerificationResult(PinVerification verification, boolean verified) {
+			if (verification != mVerification) {
+				// superseded; a lockout may have started while it was queued
+				updateLockout();
+				return;
+			}
+			mVerification = null;
+			removeInputLock(INPUT_LOCK_VERIFYING);
+			// the attempt was recorded in the background, see if it started a lockout
+			updateLockout();
+
+			// skipped for a lockout that started meanwhile, which was just reported instead
+			if (!verification.wasAttempted()) {
+				return;
 			}
+			if (mOnPinVerifiedListener != null) {
+				mOnPinVerifiedListener.onPinVerified(PinCodeView.this, verified);
+			}
+		}
+	};
+
+	/*
+	 * Match the child views to the render mode and the maximum pin length. Existing indicators are
+	 * kept, so switching between lengths only adds or removes the difference.
+	 */
+	private void updateChildViews() {
+		if (mRenderMode == RENDER_MODE_CANVAS) {
+			// indicators are drawn in onDraw; only the cell geometry changes
+			removeAllViews();
+			mIndicatorPool.clear();
+			mIndicatorLength = getPinLength();
+			requestLayout();
+			invalidate();
+			return;
+		}
+
+		final int count = getChildCount();
+		if (count > mMaxPinLength) {
+			for (int i = mMaxPinLength; i < count && mIndicatorPool.size() < MAX_POOLED_INDICATORS;
+					i++) {
+				mIndicatorPool.add(getIndicatorAt(i));
+			}
+			removeViews(mMaxPinLength, count - mMaxPinLength);
+		}
+
+		// the state of an indicator only depends on its index, so only new indicators need it set
+		final int length = getPinLength();
+		for (int i = count; i < mMaxPinLength; i++) {
+			PinIndicator child = obtainIndicator();
+			child.setIndicatorState(getIndicatorState(i, length));
+			addView(child, i);
+		}
+		mIndicatorLength = length;
+	}
+
+	@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+	private PinIndicator obtainIndicator() {
+		final int pooled = mIndicatorPool.size();
+		PinIndicator child = pooled > 0 ? mIndicatorPool.remove(pooled - 1) : null;
+		if (child == null) {
+			child = new PinIndicator(getContext());
+			if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+				// accessibility services see the cells through PinAccessibilityProvider
+				child.setImportantForAccessibility(IMPORTANT_FOR_ACCESSIBILITY_NO);
+			}
+			child.setLayoutParams(new LayoutParams(LayoutParams.WRAP_CONTENT,
+					LayoutParams.WRAP_CONTENT));
+		}
+
+		// the drawables may have changed while the indicator was pooled
+		child.setIndicatorDrawables(mIndicatorDrawable, mIndicatorBackground);
+		return child;
+	}
+
+	/*
+	 * Update the indicators after the pin text changed. Only the indicators between the previously
+	 * shown length and the new length change state, which is normally just two of them.
+	 */
+	private void updateIndicators() {
+		final PinCodeMetrics metrics = mMetrics;
+		if (metrics == null) {
+			updateIndicatorStates();
+			return;
+		}
+
+		final long start = metrics.now();
+		updateIndicatorStates();
+		metrics.onEvent(PinCodeMetrics.EVENT_UPDATE_INDICATORS, metrics.now() - start);
+	}
+
+	private void updateIndicatorStates() {
+		final int length = getPinLength();
+		final int previous = mIndicatorLength;
+		if (previous == length) {
+			return;
+		}
+		mIndicatorLength = length;
+
+		if (mMaxPinLength <= 0) {
+			return;
+		}
+		final int first = Math.min(previous, length);
+		final int last = Math.min(Math.max(previous, length), mMaxPinLength - 1);
+
+		if (length > previous) {
+			mFeedbackAnimator.onIndicatorsFilled(previous, length);
+		} else {
+			mFeedbackAnimator.onIndicatorsCleared(length, previous);
+		}
+
+		if (mRenderMode == RENDER_MODE_CANVAS) {
+			invalidate(getCellLeft(first), mCellsTop, getCellLeft(last) + mCellWidth,
+					mCellsTop + mCellHeight);
+			return;
+		}
 
-			PinIndicator indicator = (PinIndicator) child;
-			indicator.setIsEmpty(i < length);
-			indicator.setIsActive(i == length);
+		for (int i = first; i <= last; i++) {
+			getIndicatorAt(i).setIndicatorState(getIndicatorState(i, length));
 		}
 	}
 
+	private PinIndicator getIndicatorAt(int index) {
+		View child = getChildAt(index);
+		if (!(child instanceof PinIndicator)) {
+			throw new IllegalStateException("PinCodeView cannot have other child views.");
+		}
+		return (PinIndicator) child;
+	}
+
+	/*
+	 * Returns the INDICATOR_STATE_* flags of the indicator at the given index for a pin of the given
+	 * length.
+	 */
+	private static int getIndicatorState(int index, int length) {
+		int state = 0;
+		if (index < length) state |= INDICATOR_STATE_EMPTY;
+		if (index == length) state |= INDICATOR_STATE_ACTIVE;
+		return state;
+	}
+
 	/**
-	 * Get the currently entered pin text.
+	 * Get the currently entered pin text. This allocates a new String, which cannot be wiped from
+	 * memory; use {@link #getPin(char[])} or {@link #copyPinTo(CharBuffer)} to read the pin without
+	 * allocating.
 	 */
 	public String getPin() {
-		return mPinText.getText().toString();
+		return mPinModel.toString();
+	}
+
+	/**
+	 * Copy the currently entered pin text into dest, starting at index 0, without allocating.
+	 *
+	 * @return The length of the pin copied.
+	 * @throws IndexOutOfBoundsException if dest is shorter than the pin.
+	 * @see #clearAndWipe()
+	 */
+	public int getPin(char[] dest) {
+		final int length = mPinModel.length();
+		if (dest.length < length) {
+			throw new IndexOutOfBoundsException("dest length " + dest.length
+					+ " is shorter than the pin");
+		}
+		mPinModel.getChars(0, length, dest, 0);
+		return length;
+	}
+
+	/**
+	 * Copy the currently entered pin text into dest at its current position, without allocating.
+	 *
+	 * @throws java.nio.BufferOverflowException if dest does not have enough room.
+	 * @see #clearAndWipe()
+	 */
+	public void copyPinTo(CharBuffer dest) {
+		mPinModel.copyTo(dest);
+	}
+
+	/**
+	 * Replace the pin with the accepted characters of the given text, e.g. a one-time code read
+	 * from an SMS or the clipboard. Characters that are not accepted are dropped and the rest is
+	 * truncated to the maximum length, in a single edit, so the indicators are updated and
+	 * listeners are notified once.
+	 *
+	 * @param pin The new pin, or null to clear it.
+	 * @see #getPin(char[])
+	 */
+	public void setPin(CharSequence pin) {
+		mPinBuffer.replace(0, mPinBuffer.length(), pin != null ? pin : "");
+	}
+
+	/**
+	 * Show the pin, maximum length and input type or charset of the given state, and copy every
+	 * later edit back to it, e.g. in {@code RecyclerView.Adapter.onBindViewHolder}. Nothing is
+	 * rebuilt when the length and input type match the previous state: the existing indicators are
+	 * reused, the input method is not restarted, and nothing is allocated.
+	 * <p>
+	 * Binding does not notify the pin change or completion listeners, and does not start a
+	 * verification. A verification or animation in flight is cancelled, and so is a change
+	 * notification still pending for the previous pin.
+	 *
+	 * @see #unbind()
+	 */
+	public void bind(PinCodeState state) {
+		if (DEBUG) Log.d(TAG, "[bind]");
+		if (state == null) {
+			throw new IllegalArgumentException("state must not be null");
+		}
+
+		mBoundState = null;
+		mBinding = true;
+		try {
+			// a change still pending belongs to the previous state
+			cancelPinChanged();
+			cancelAnnouncement();
+			cancelVerification();
+			if (state.getCharset() != null) {
+				setCharset(state.getCharset());
+			} else {
+				setInputType(state.getInputType());
+			}
+			setMaxPinLength(state.getMaxPinLength());
+			final CharSequence pin = state.getText();
+			mPinBuffer.replace(0, mPinBuffer.length(), pin, 0, pin.length());
+			mFeedbackAnimator.cancel();
+		} finally {
+			mBinding = false;
+		}
+		mBoundState = state;
+	}
+
+	/**
+	 * Stop copying edits to the bound state, and clear and wipe the pin shown by this view, e.g.
+	 * in {@code RecyclerView.Adapter.onViewRecycled}. The length and input type are kept so the
+	 * next {@link #bind(PinCodeState)} can reuse them.
+	 */
+	public void unbind() {
+		if (DEBUG) Log.d(TAG, "[unbind]");
+		mBoundState = null;
+		mBinding = true;
+		try {
+			cancelPinChanged();
+			cancelAnnouncement();
+			cancelVerification();
+			clearAndWipe();
+			mFeedbackAnimator.cancel();
+		} finally {
+			mBinding = false;
+		}
+	}
+
+	/**
+	 * Get the state set with {@link #bind(PinCodeState)}, or null if this view is not bound.
+	 */
+	public PinCodeState getBoundState() {
+		return mBoundState;
+	}
+
+	/**
+	 * Clear the pin and zero-fill every copy of it held by this view, including the one kept for
+	 * saved instance state. Copies made by callers with {@link #getPin(char[])} or
+	 * {@link #copyPinTo(CharBuffer)} should be wiped by them.
+	 */
+	public void clearAndWipe() {
+		mPinBuffer.clear();
+		mPinModel.wipe();
+		if (mSavedState != null) {
+			mSavedState.wipe();
+			mSavedState = null;
+		}
 	}
 
 	/**
@@ -227,21 +748,21 @@ public class PinCodeView extends LinearLayout {
 	 * acceptable input, otherwise you can use {@link #isPinFilled()}.
 	 */
 	public int getPinLength() {
-		return mPinText.getText().length();
+		return mPinModel.length();
 	}
 
 	/**
 	 * Returns true if the current pin text is empty, false otherwise.
 	 */
 	public boolean isPinEmpty() {
-		return getPinLength() == 0;
+		return mPinModel.isEmpty();
 	}
 
 	/**
 	 * Returns true if the current pin text fills the available indicators, false otherwise.
 	 */
 	public boolean isPinFilled() {
-		return getPinLength() == mMaxPinLength;
+		return mPinModel.isFilled();
 	}
 
 	/**
@@ -253,17 +774,20 @@ public class PinCodeView extends LinearLayout {
 	 * @attr {@link R.styleable#PinCodeView_pinLength}
 	 */
 	public void setMaxPinLength(int newLength) {
+		mConfig = null;
 		if (mMaxPinLength != newLength) {
 			mMaxPinLength = newLength;
-			mPinText.setFilters(new InputFilter[] { new InputFilter.LengthFilter(newLength) });
-
-			CharSequence text = mPinText.getText();
-			if (text != null && text.length() > newLength) {
-				mPinText.setText(text.subSequence(0, newLength));
-				Selection.setSelection(mPinText.getEditableText(), newLength);
+			// truncates the current text if it is too long
+			mPinBuffer.setMaxLength(newLength);
+			mFeedbackAnimator.setIndicatorCount(newLength);
+			if (mAccessibilityProvider != null) {
+				mAccessibilityProvider.onCellCountChanged(newLength);
+			}
+			if (mBoundState != null && !mBinding) {
+				mBoundState.setMaxPinLength(newLength);
 			}
 
-			createChildViews();
+			updateChildViews();
 		}
 	}
 
@@ -277,23 +801,29 @@ public class PinCodeView extends LinearLayout {
 	}
 
 	/**
-	 * Set the {@link Drawable} used for the pin indicators.
+	 * Set the {@link Drawable} used for the pin indicators. Each indicator shows its own copy made
+	 * from the drawable's {@link Drawable.ConstantState}, so the indicators change state
+	 * independently while sharing bitmaps.
 	 *
 	 * @see #getPinIndicatorDrawable()
 	 * @attr {@link R.styleable#PinCodeView_pinIndicatorDrawable}
 	 */
 	public void setPinIndicatorDrawable(Drawable d) {
+		mConfig = null;
 		if (mIndicatorDrawable != d) {
 			mIndicatorDrawable = d;
 
+			if (mRenderMode == RENDER_MODE_CANVAS) {
+				requestLayout();
+				invalidate();
+				return;
+			}
+
+			requestLayout();
+
 			final int count = getChildCount();
 			for (int i = 0; i < count; i++) {
-				View child = getChildAt(i);
-				if (!(child instanceof PinIndicator)) {
-					throw new IllegalStateException("PinCodeView cannot have other child views.");
-				}
-
-				((PinIndicator) child).setImageDrawable(d);
+				getIndicatorAt(i).setIndicatorDrawables(d, mIndicatorBackground);
 			}
 		}
 	}
@@ -308,29 +838,28 @@ public class PinCodeView extends LinearLayout {
 	}
 
 	/**
-	 * Set the background {@link Drawable} used for the pin indicators.
+	 * Set the background {@link Drawable} used for the pin indicators. Like the indicator drawable,
+	 * each indicator gets its own copy.
 	 *
 	 * @see #getPinIndicatorBackground()
 	 * @attr {@link R.styleable#PinCodeView_pinIndicatorBackground}
 	 */
-	@SuppressWarnings("deprecation")
-	@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
 	public void setPinIndicatorBackground(Drawable d) {
+		mConfig = null;
 		if (mIndicatorBackground != d) {
 			mIndicatorBackground = d;
 
+			if (mRenderMode == RENDER_MODE_CANVAS) {
+				requestLayout();
+				invalidate();
+				return;
+			}
+
+			requestLayout();
+
 			final int count = getChildCount();
 			for (int i = 0; i < count; i++) {
-				View child = getChildAt(i);
-				if (!(child instanceof PinIndicator)) {
-					throw new IllegalStateException("PinCodeView cannot have other child views.");
-				}
-
-				if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
-					child.setBackground(mIndicatorBackground);
-				} else {
-					child.setBackgroundDrawable(mIndicatorBackground);
-				}
+				getIndicatorAt(i).setIndicatorDrawables(mIndicatorDrawable, d);
 			}
 		}
 	}
@@ -344,14 +873,485 @@ public class PinCodeView extends LinearLayout {
 		return mIndicatorBackground;
 	}
 
+	/**
+	 * Set how the pin indicators are rendered. Must be one of {@link #RENDER_MODE_VIEWS} or
+	 * {@link #RENDER_MODE_CANVAS}. In {@link #RENDER_MODE_CANVAS} this view has no children and draws
+	 * every indicator itself, only invalidating the indicators that changed.
+	 *
+	 * @see #getRenderMode()
+	 * @attr {@link R.styleable#PinCodeView_pinRenderMode}
+	 */
+	public void setRenderMode(int renderMode) {
+		mConfig = null;
+		if (renderMode != RENDER_MODE_VIEWS && renderMode != RENDER_MODE_CANVAS) {
+			throw new IllegalArgumentException("renderMode must be one of RENDER_MODE_VIEWS or "
+					+ "RENDER_MODE_CANVAS");
+		}
+
+		if (mRenderMode != renderMode) {
+			mRenderMode = renderMode;
+			setWillNotDraw(renderMode != RENDER_MODE_CANVAS);
+			updateChildViews();
+		}
+	}
+
+	/**
+	 * Get how the pin indicators are rendered. This value should be one of
+	 * {@link #RENDER_MODE_VIEWS} or {@link #RENDER_MODE_CANVAS}.
+	 *
+	 * @see #setRenderMode(int)
+	 */
+	public int getRenderMode() {
+		return mRenderMode;
+	}
+
+	/**
+	 * Set the width of each indicator cell in pixels, or 0 to size the cells from the width given
+	 * by the parent or from the indicator drawables. Without an aspect ratio the cells are square.
+	 * Cells shrink to fit when the parent does not give them enough room.
+	 *
+	 * @see #getCellSize()
+	 * @see #setCellAspectRatio(float)
+	 * @attr {@link R.styleable#PinCodeView_pinCellSize}
+	 */
+	public void setCellSize(int size) {
+		mConfig = null;
+		if (size < 0) {
+			throw new IllegalArgumentException("size must not be negative");
+		}
+		if (mCellSize != size) {
+			mCellSize = size;
+			requestLayout();
+			invalidate();
+		}
+	}
+
+	/**
+	 * Get the width of each indicator cell, or 0 if the cells are sized to fit.
+	 *
+	 * @see #setCellSize(int)
+	 */
+	public int getCellSize() {
+		return mCellSize;
+	}
+
+	/**
+	 * Set the space between indicator cells in pixels.
+	 *
+	 * @see #getCellSpacing()
+	 * @attr {@link R.styleable#PinCodeView_pinCellSpacing}
+	 */
+	public void setCellSpacing(int spacing) {
+		mConfig = null;
+		if (spacing < 0) {
+			throw new IllegalArgumentException("spacing must not be negative");
+		}
+		if (mCellSpacing != spacing) {
+			mCellSpacing = spacing;
+			requestLayout();
+			invalidate();
+		}
+	}
+
+	/**
+	 * Get the space between indicator cells.
+	 *
+	 * @see #setCellSpacing(int)
+	 */
+	public int getCellSpacing() {
+		return mCellSpacing;
+	}
+
+	/**
+	 * Set the width to height ratio of the indicator cells, e.g. 1 for square cells, or 0 to let
+	 * the height follow the parent or the indicator drawables.
+	 *
+	 * @see #getCellAspectRatio()
+	 * @attr {@link R.styleable#PinCodeView_pinCellAspectRatio}
+	 */
+	public void setCellAspectRatio(float ratio) {
+		mConfig = null;
+		if (ratio < 0f) {
+			throw new IllegalArgumentException("ratio must not be negative");
+		}
+		if (mCellAspectRatio != ratio) {
+			mCellAspectRatio = ratio;
+			requestLayout();
+			invalidate();
+		}
+	}
+
+	/**
+	 * Get the width to height ratio of the indicator cells, or 0 if there is none.
+	 *
+	 * @see #setCellAspectRatio(float)
+	 */
+	public float getCellAspectRatio() {
+		return mCellAspectRatio;
+	}
+
+	/**
+	 * Set how the pin is kept in saved instance state. This value should be one of
+	 * {@link #SAVE_PIN_PLAIN}, {@link #SAVE_PIN_ENCRYPTED} or {@link #SAVE_PIN_NONE}.
+	 *
+	 * @see #getPinSaveMode()
+	 * @attr {@link R.styleable#PinCodeView_pinSaveMode}
+	 */
+	public void setPinSaveMode(int saveMode) {
+		mConfig = null;
+		if (saveMode != SAVE_PIN_PLAIN && saveMode != SAVE_PIN_ENCRYPTED
+				&& saveMode != SAVE_PIN_NONE) {
+			throw new IllegalArgumentException("saveMode must be one of SAVE_PIN_PLAIN, "
+					+ "SAVE_PIN_ENCRYPTED or SAVE_PIN_NONE");
+		}
+		mPinSaveMode = saveMode;
+	}
+
+	/**
+	 * Get how the pin is kept in saved instance state.
+	 *
+	 * @see #setPinSaveMode(int)
+	 */
+	public int getPinSaveMode() {
+		return mPinSaveMode;
+	}
+
+	/**
+	 * Set whether indicators animate in when they are filled.
+	 *
+	 * @see #isFillAnimationEnabled()
+	 * @attr {@link R.styleable#PinCodeView_pinFillAnimation}
+	 */
+	public void setFillAnimationEnabled(boolean enabled) {
+		mConfig = null;
+		mFeedbackAnimator.setFillEnabled(enabled);
+	}
+
+	/**
+	 * Returns true if indicators animate in when they are filled. The default is false.
+	 *
+	 * @see #setFillAnimationEnabled(boolean)
+	 */
+	public boolean isFillAnimationEnabled() {
+		return mFeedbackAnimator.isFillEnabled();
+	}
+
+	/**
+	 * Set the duration of the animations started by {@link #showError()} and
+	 * {@link #showSuccess()}, in milliseconds. 0 disables them.
+	 *
+	 * @see #getFeedbackDuration()
+	 * @attr {@link R.styleable#PinCodeView_pinFeedbackDuration}
+	 */
+	public void setFeedbackDuration(int durationMillis) {
+		mConfig = null;
+		mFeedbackDuration = durationMillis;
+	}
+
+	/**
+	 * Get the duration of the error and success animations, in milliseconds.
+	 *
+	 * @see #setFeedbackDuration(int)
+	 */
+	public int getFeedbackDuration() {
+		return mFeedbackDuration;
+	}
+
+	/**
+	 * Set how far {@link #showError()} shakes this view, in pixels.
+	 *
+	 * @see #getShakeDistance()
+	 * @attr {@link R.styleable#PinCodeView_pinShakeDistance}
+	 */
+	public void setShakeDistance(float distance) {
+		mConfig = null;
+		mFeedbackAnimator.setShakeDistance(distance);
+	}
+
+	/**
+	 * Get how far {@link #showError()} shakes this view, in pixels.
+	 *
+	 * @see #setShakeDistance(float)
+	 */
+	public float getShakeDistance() {
+		return mFeedbackAnimator.getShakeDistance();
+	}
+
+	/**
+	 * Shake this view to show that the pin was wrong. On Honeycomb and later this animates the
+	 * view's translation on a hardware layer, and resets it to 0 when done.
+	 *
+	 * @see #setFeedbackDuration(int)
+	 * @see #setShakeDistance(float)
+	 */
+	public void showError() {
+		mFeedbackAnimator.showError(mFeedbackDuration);
+	}
+
+	/**
+	 * Pulse this view to show that the pin was correct. On Honeycomb and later this animates the
+	 * view's scale on a hardware layer, and resets it to 1 when done.
+	 *
+	 * @see #setFeedbackDuration(int)
+	 */
+	public void showSuccess() {
+		mFeedbackAnimator.showSuccess(mFeedbackDuration);
+	}
+
+	/**
+	 * Stop any running fill, error or success animation.
+	 */
+	public void cancelAnimations() {
+		mFeedbackAnimator.cancel();
+	}
+
+	/**
+	 * Returns the left edge of the indicator cell at the given index.
+	 */
+	private int getCellLeft(int index) {
+		return mCellsLeft + index * (mCellWidth + mCellSpacing);
+	}
+
+	/*
+	 * Cells are measured and laid out here in a single pass for both render modes, instead of
+	 * through LinearLayout, whose weights measure every child twice.
+	 */
+	@Override
+	protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+		measureCells(widthMeasureSpec, heightMeasureSpec);
+
+		if (mRenderMode == RENDER_MODE_CANVAS) {
+			return;
+		}
+		final int childWidthSpec = MeasureSpec.makeMeasureSpec(mCellWidth, MeasureSpec.EXACTLY);
+		final int childHeightSpec = MeasureSpec.makeMeasureSpec(mCellHeight, MeasureSpec.EXACTLY);
+		final int count = getChildCount();
+		for (int i = 0; i < count; i++) {
+			getChildAt(i).measure(childWidthSpec, childHeightSpec);
+		}
+	}
+
+	/*
+	 * Find the cell size and set the size of this view. A fixed cell size is used as it is, otherwise
+	 * cells share an exact width or take the size of the indicator drawables. In every mode but
+	 * UNSPECIFIED the cells then shrink to fit, keeping the aspect ratio if there is one.
+	 */
+	private void measureCells(int widthMeasureSpec, int heightMeasureSpec) {
+		final int count = mMaxPinLength;
+		final int widthMode = MeasureSpec.getMode(widthMeasureSpec);
+		final int heightMode = MeasureSpec.getMode(heightMeasureSpec);
+		final int horizontalPadding = getPaddingLeft() + getPaddingRight();
+		final int verticalPadding = getPaddingTop() + getPaddingBottom();
+		final int spacing = count > 1 ? mCellSpacing * (count - 1) : 0;
+		final int availableWidth = count > 0 ? Math.max(0, MeasureSpec.getSize(widthMeasureSpec)
+				- horizontalPadding - spacing) / count : 0;
+		final int availableHeight = Math.max(0, MeasureSpec.getSize(heightMeasureSpec)
+				- verticalPadding);
+		final float ratio = mCellAspectRatio;
+
+		getIntrinsicCellSize(mTempRect);
+		int cellWidth;
+		if (mCellSize > 0) {
+			cellWidth = mCellSize;
+		} else if (widthMode == MeasureSpec.EXACTLY) {
+			cellWidth = availableWidth;
+		} else if (ratio > 0f && heightMode == MeasureSpec.EXACTLY) {
+			cellWidth = Math.round(availableHeight * ratio);
+		} else {
+			cellWidth = mTempRect.right;
+		}
+		if (widthMode != MeasureSpec.UNSPECIFIED) {
+			cellWidth = Math.min(cellWidth, availableWidth);
+		}
+
+		int cellHeight;
+		if (ratio > 0f) {
+			cellHeight = Math.round(cellWidth / ratio);
+		} else if (mCellSize > 0) {
+			cellHeight = cellWidth;
+		} else if (heightMode == MeasureSpec.EXACTLY) {
+			cellHeight = availableHeight;
+		} else {
+			cellHeight = mTempRect.bottom;
+		}
+		if (heightMode != MeasureSpec.UNSPECIFIED && cellHeight > availableHeight) {
+			cellHeight = availableHeight;
+			if (ratio > 0f) {
+				cellWidth = Math.round(cellHeight * ratio);
+			}
+		}
+		mCellWidth = cellWidth;
+		mCellHeight = cellHeight;
+
+		final int width = Math.max(horizontalPadding + cellWidth * count + spacing,
+				getSuggestedMinimumWidth());
+		final int height = Math.max(verticalPadding + cellHeight, getSuggestedMinimumHeight());
+		setMeasuredDimension(resolveSize(width, widthMeasureSpec),
+				resolveSize(height, heightMeasureSpec));
+	}
+
+	/*
+	 * Set size.right and size.bottom to the size the indicator drawables would like a cell to be:
+	 * the indicator inside the padding of its background, or the background itself if larger.
+	 */
+	private void getIntrinsicCellSize(Rect size) {
+		int width = 0;
+		int height = 0;
+		if (mIndicatorDrawable != null) {
+			width = Math.max(0, mIndicatorDrawable.getIntrinsicWidth());
+			height = Math.max(0, mIndicatorDrawable.getIntrinsicHeight());
+		}
+		if (mIndicatorBackground != null) {
+			final Rect padding = size;
+			padding.setEmpty();
+			mIndicatorBackground.getPadding(padding);
+			width = Math.max(width + padding.left + padding.right,
+					mIndicatorBackground.getIntrinsicWidth());
+			height = Math.max(height + padding.top + padding.bottom,
+					mIndicatorBackground.getIntrinsicHeight());
+		}
+		size.set(0, 0, width, height);
+	}
+
+	/*
+	 * The row of cells is centered in the content area, which only leaves a gap when the cells were
+	 * given a fixed size or the content width does not divide evenly.
+	 */
+	@Override
+	protected void onLayout(boolean changed, int l, int t, int r, int b) {
+		final int count = mMaxPinLength;
+		final int rowWidth = mCellWidth * count + (count > 1 ? mCellSpacing * (count - 1) : 0);
+		final int contentWidth = r - l - getPaddingLeft() - getPaddingRight();
+		final int contentHeight = b - t - getPaddingTop() - getPaddingBottom();
+		mCellsLeft = getPaddingLeft() + (contentWidth - rowWidth) / 2;
+		mCellsTop = getPaddingTop() + (contentHeight - mCellHeight) / 2;
+
+		if (mRenderMode == RENDER_MODE_CANVAS) {
+			return;
+		}
+		final int childCount = getChildCount();
+		for (int i = 0; i < childCount; i++) {
+			final int left = getCellLeft(i);
+			getChildAt(i).layout(left, mCellsTop, left + mCellWidth, mCellsTop + mCellHeight);
+		}
+	}
+
+	@Override
+	protected void onDraw(Canvas canvas) {
+		super.onDraw(canvas);
+		if (mRenderMode != RENDER_MODE_CANVAS || mMaxPinLength <= 0) {
+			return;
+		}
+
+		final Drawable drawable = mIndicatorDrawable;
+		final Drawable background = mIndicatorBackground;
+		final int top = mCellsTop;
+		final int bottom = top + mCellHeight;
+		final int length = mIndicatorLength;
+
+		for (int i = 0; i < mMaxPinLength; i++) {
+			final int left = getCellLeft(i);
+			final int right = left + mCellWidth;
+			final int state = getIndicatorState(i, length);
+
+			final float scale = mFeedbackAnimator.getFillScale(i);
+			final int saveCount = canvas.save();
+			if (scale != 1f) {
+				canvas.scale(scale, scale, (left + right) / 2f, (top + bottom) / 2f);
+			}
+			if (background != null) {
+				background.setState(INDICATOR_STATE_SETS[state]);
+				background.setBounds(left, top, right, bottom);
+				background.draw(canvas);
+			}
+			if (drawable != null) {
+				drawable.setState(INDICATOR_STATE_SETS[state]);
+				setCenteredBounds(drawable, left, top, right, bottom);
+				drawable.draw(canvas);
+			}
+			canvas.restoreToCount(saveCount);
+		}
+	}
+
+	@Override
+	protected boolean drawChild(Canvas canvas, View child, long drawingTime) {
+		final float scale = mFeedbackAnimator.getFillScale(indexOfChild(child));
+		if (scale == 1f) {
+			return super.drawChild(canvas, child, drawingTime);
+		}
+
+		final int saveCount = canvas.save();
+		canvas.scale(scale, scale, (child.getLeft() + child.getRight()) / 2f,
+				(child.getTop() + child.getBottom()) / 2f);
+		final boolean more = super.drawChild(canvas, child, drawingTime);
+		canvas.restoreToCount(saveCount);
+		return more;
+	}
+
+	@Override
+	public void draw(Canvas canvas) {
+		if (!mFeedbackAnimator.hasViewTransform()) {
+			super.draw(canvas);
+			return;
+		}
+
+		// before Honeycomb the shake and pulse can't use view properties
+		final int saveCount = canvas.save();
+		mFeedbackAnimator.applyViewTransform(canvas);
+		super.draw(canvas);
+		canvas.restoreToCount(saveCount);
+	}
+
+	/*package*/ void invalidateIndicator(int index) {
+		if (index >= mMaxPinLength) {
+			return;
+		}
+
+		if (mRenderMode == RENDER_MODE_CANVAS) {
+			final int left = getCellLeft(index);
+			invalidate(left, mCellsTop, left + mCellWidth, mCellsTop + mCellHeight);
+		} else if (index < getChildCount()) {
+			View child = getChildAt(index);
+			invalidate(child.getLeft(), child.getTop(), child.getRight(), child.getBottom());
+		}
+	}
+
+	/*
+	 * Scale the drawable to fit inside the given cell, keeping its aspect ratio, the way ImageView
+	 * does with its default scale type.
+	 */
+	private static void setCenteredBounds(Drawable d, int left, int top, int right, int bottom) {
+		final int cellWidth = right - left;
+		final int cellHeight = bottom - top;
+		final int dw = d.getIntrinsicWidth();
+		final int dh = d.getIntrinsicHeight();
+		if (dw <= 0 || dh <= 0) {
+			d.setBounds(left, top, right, bottom);
+			return;
+		}
+
+		int width = cellWidth;
+		int height = cellHeight;
+		if (dw * cellHeight > cellWidth * dh) {
+			height = (dh * cellWidth) / dw;
+		} else {
+			width = (dw * cellHeight) / dh;
+		}
+		final int x = left + (cellWidth - width) / 2;
+		final int y = top + (cellHeight - height) / 2;
+		d.setBounds(x, y, x + width, y + height);
+	}
+
 	/**
 	 * Set the type of character accepted by this view. Must be one of {@link #INPUT_TYPE_NUMERIC},
-	 * {@link #INPUT_TYPE_ALPHA}, or {@link #INPUT_TYPE_ALPHA_NUMERIC}.
+	 * {@link #INPUT_TYPE_ALPHA}, {@link #INPUT_TYPE_ALPHA_NUMERIC}, or {@link #INPUT_TYPE_CUSTOM}
+	 * for the charset last given to {@link #setCharset(PinCharset)}.
 	 *
 	 * @see #getInputType()
 	 * @attr {@link R.styleable#PinCodeView_inputType}
 	 */
 	public void setInputType(int inputType) {
+		mConfig = null;
 		PinKeyListener input;
 		switch (inputType) {
 		case INPUT_TYPE_NUMERIC:
@@ -363,26 +1363,75 @@ public class PinCodeView extends LinearLayout {
 		case INPUT_TYPE_ALPHA_NUMERIC:
 			input = PinKeyListener.getInstance(Type.ALPHA_NUMERIC);
 			break;
+		case INPUT_TYPE_CUSTOM:
+			if (mCustomKeyListener == null) {
+				throw new IllegalArgumentException("INPUT_TYPE_CUSTOM needs a charset set with "
+						+ "setCharset(PinCharset)");
+			}
+			input = mCustomKeyListener;
+			break;
 		default:
 			throw new IllegalArgumentException("inputType must be one of INPUT_TYPE_NUMERIC,"
-					+ "INPUT_TYPE_ALPHA, or INPUT_TYPE_ALPHA_NUMERIC");
+					+ "INPUT_TYPE_ALPHA, INPUT_TYPE_ALPHA_NUMERIC, or INPUT_TYPE_CUSTOM");
+		}
+
+		if (mBoundState != null && !mBinding) {
+			if (inputType == INPUT_TYPE_CUSTOM) {
+				mBoundState.setCharset(input.getCharset());
+			} else {
+				mBoundState.setInputType(inputType);
+			}
+		}
+		mInputType = inputType;
+		if (input == mKeyListener) {
+			return; // no need to restart the input method
 		}
 
 		mInputContentInfo.inputType = input.getInputType();
-		mPinText.setKeyListener(input);
+		mKeyListener = input;
+		mPinModel.setCharset(input.getCharset());
 
 		InputMethodManager imm = getInputMethodManager();
 		if (imm != null) imm.restartInput(this);
 	}
 
 	/**
-	 * Get the type of character accepted by this view. This value should be one of
-	 * {@link #INPUT_TYPE_NUMERIC}, {@link #INPUT_TYPE_ALPHA}, or {@link #INPUT_TYPE_ALPHA_NUMERIC}.
+	 * Get the type of character accepted by this view: one of {@link #INPUT_TYPE_NUMERIC},
+	 * {@link #INPUT_TYPE_ALPHA}, {@link #INPUT_TYPE_ALPHA_NUMERIC}, or {@link #INPUT_TYPE_CUSTOM}.
+	 *
+	 * @see #setInputType(int)
+	 */
+	public int getInputType() {
+		return mInputType;
+	}
+
+	/**
+	 * Accept only the characters of the given charset, normalizing typed characters as it says,
+	 * e.g. {@link PinCharset#HEX} or a charset made with {@link PinCharset#of(CharSequence, int)}.
+	 * This sets the input type to {@link #INPUT_TYPE_CUSTOM}. The current pin is kept as it is.
+	 *
+	 * @see #getCharset()
+	 * @attr {@link R.styleable#PinCodeView_pinCharset}
+	 * @attr {@link R.styleable#PinCodeView_pinCharsetNormalization}
+	 */
+	public void setCharset(PinCharset charset) {
+		mConfig = null;
+		if (charset == null) {
+			throw new IllegalArgumentException("charset must not be null");
+		}
+		if (mCustomKeyListener == null || mCustomKeyListener.getCharset() != charset) {
+			mCustomKeyListener = new PinKeyListener(charset);
+		}
+		setInputType(INPUT_TYPE_CUSTOM);
+	}
+
+	/**
+	 * Get the charset of the characters accepted by this view, for any input type.
 	 *
-	 * @see #setInputType(int)
+	 * @see #setCharset(PinCharset)
 	 */
-	public int getInputType() {
-		return mInputContentInfo.inputType;
+	public PinCharset getCharset() {
+		return mPinModel.getCharset();
 	}
 
 	/**
@@ -395,6 +1444,7 @@ public class PinCodeView extends LinearLayout {
 	 */
 	@SuppressLint("InlinedApi")
 	public void setImeOptions(int options) {
+		mConfig = null;
 		// try to prevent the IME from hiding the view in landscape
 		options = options | EditorInfo.IME_FLAG_NO_EXTRACT_UI | EditorInfo.IME_FLAG_NO_FULLSCREEN;
 		mInputContentInfo.imeOptions = options;
@@ -422,6 +1472,7 @@ public class PinCodeView extends LinearLayout {
      * @attr {@link android.R.styleable#TextView_imeActionId}
      */
 	public void setImeActionLabel(CharSequence label, int actionId) {
+		mConfig = null;
 		mInputContentInfo.imeActionLabel = label;
 		mInputContentInfo.imeActionId = actionId;
 	}
@@ -455,24 +1506,272 @@ public class PinCodeView extends LinearLayout {
 		mInputContentInfo.onEditorActionListener = listener;
 	}
 
+	/**
+	 * Set the {@link PinCodeMetrics} receiving the timings of key handling, text commits from the
+	 * input method, indicator updates and input connection creation. Nothing is timed when the
+	 * metrics are null, which is the default.
+	 *
+	 * @see #getMetrics()
+	 */
+	public void setMetrics(PinCodeMetrics metrics) {
+		mMetrics = metrics;
+	}
+
+	/**
+	 * Get the {@link PinCodeMetrics} set on this view, or null if there are none.
+	 *
+	 * @see #setMetrics(PinCodeMetrics)
+	 */
+	public PinCodeMetrics getMetrics() {
+		return mMetrics;
+	}
+
+	/**
+	 * Set a listener to be called when the pin changes. Edits made within one frame, such as
+	 * fast typing or a batch edit from the input method, are reported in a single call.
+	 */
+	public void setOnPinChangedListener(OnPinChangedListener listener) {
+		mOnPinChangedListener = listener;
+		if (listener == null) {
+			cancelPinChanged();
+		}
+	}
+
+	/**
+	 * Set a listener to be called when the pin reaches the maximum length. It is called before the
+	 * pin is handed to the {@link PinVerifier}, if one is set.
+	 */
+	public void setOnPinCompleteListener(OnPinCompleteListener listener) {
+		mOnPinCompleteListener = listener;
+	}
+
+	/**
+	 * Set a verifier to check the pin each time it reaches the maximum length. The verifier runs
+	 * on the given executor and its result is reported on the main thread to the
+	 * {@link OnPinVerifiedListener}. Editing the pin cancels the verification in flight, so only
+	 * the latest entry is reported.
+	 *
+	 * @param verifier The verifier, or null to stop verifying.
+	 * @param executor The executor to run the verifier on, or null to use a shared background
+	 *            thread.
+	 * @see #setOnPinVerifiedListener(OnPinVerifiedListener)
+	 * @see #setLockInputWhileVerifying(boolean)
+	 */
+	public void setPinVerifier(PinVerifier verifier, Executor executor) {
+		cancelVerification();
+		mPinVerifier = verifier;
+		if (verifier != null && executor == null) {
+			executor = PinVerification.getDefaultExecutor();
+		}
+		mVerifierExecutor = executor;
+	}
+
+	/**
+	 * Get the verifier set with {@link #setPinVerifier(PinVerifier, Executor)}.
+	 */
+	public PinVerifier getPinVerifier() {
+		return mPinVerifier;
+	}
+
+	/**
+	 * Set a listener to be called on the main thread with the result of each verification.
+	 *
+	 * @see #setPinVerifier(PinVerifier, Executor)
+	 */
+	public void setOnPinVerifiedListener(OnPinVerifiedListener listener) {
+		mOnPinVerifiedListener = listener;
+	}
+
+	/**
+	 * Set whether edits are blocked while a verification is in flight. Defaults to false, in which
+	 * case editing the pin cancels the verification.
+	 */
+	public void setLockInputWhileVerifying(boolean lock) {
+		mLockInputWhileVerifying = lock;
+		if (!lock) {
+			removeInputLock(INPUT_LOCK_VERIFYING);
+		} else if (mVerification != null) {
+			addInputLock(INPUT_LOCK_VERIFYING);
+		}
+	}
+
+	public boolean getLockInputWhileVerifying() {
+		return mLockInputWhileVerifying;
+	}
+
+	/**
+	 * Returns true if a verification of the pin is in flight.
+	 */
+	public boolean isVerifying() {
+		return mVerification != null;
+	}
+
+	/**
+	 * Cancel the verification in flight, if any. Its result will not be reported.
+	 */
+	public void cancelVerification() {
+		if (mVerification != null) {
+			mVerification.cancel();
+			mVerification = null;
+			removeInputLock(INPUT_LOCK_VERIFYING);
+		}
+	}
+
+	/**
+	 * Set a lockout to throttle failed attempts. Each result of the {@link PinVerifier} is recorded
+	 * with it, and input is locked while it is locked out. Apps checking the pin themselves can
+	 * record attempts with {@link PinLockout#recordAttempt(boolean)} and call this method again to
+	 * apply the lockout. The lockout's file is read on a background thread the first time, and
+	 * input is locked once it has been read.
+	 *
+	 * @param lockout The lockout, or null to stop throttling.
+	 * @see #setOnLockoutChangeListener(OnLockoutChangeListener)
+	 */
+	public void setPinLockout(PinLockout lockout) {
+		mPinLockout = lockout;
+		updateLockout();
+	}
+
+	/**
+	 * Get the lockout set with {@link #setPinLockout(PinLockout)}.
+	 */
+	public PinLockout getPinLockout() {
+		return mPinLockout;
+	}
+
+	/**
+	 * Set a listener to be called when a lockout starts or ends.
+	 *
+	 * @see #setPinLockout(PinLockout)
+	 */
+	public void setOnLockoutChangeListener(OnLockoutChangeListener listener) {
+		mOnLockoutChangeListener = listener;
+	}
+
+	/**
+	 * Returns true if input is locked because of too many failed attempts.
+	 */
+	public boolean isLockedOut() {
+		return hasInputLock(INPUT_LOCK_LOCKOUT);
+	}
+
+	private final Runnable mLockoutEnd = new Runnable() {
+		@Override
+		public void run() {
+			updateLockout();
+		}
+	};
+
+	private void updateLockout() {
+		removeCallbacks(mLockoutEnd);
+		final PinLockout lockout = mPinLockout;
+		long remaining = 0;
+		if (lockout != null) {
+			if (lockout.isLoaded()) {
+				remaining = lockout.getRemainingMillis();
+			} else {
+				loadLockout(lockout);
+			}
+		}
+		final boolean wasLockedOut = hasInputLock(INPUT_LOCK_LOCKOUT);
+		if (DEBUG) Log.d(TAG, "[updateLockout] remaining=" + remaining);
+
+		if (remaining > 0) {
+			addInputLock(INPUT_LOCK_LOCKOUT);
+			postDelayed(mLockoutEnd, remaining);
+		} else {
+			removeInputLock(INPUT_LOCK_LOCKOUT);
+		}
+
+		if (mOnLockoutChangeListener != null && (wasLockedOut || remaining > 0)) {
+			mOnLockoutChangeListener.onLockoutChanged(this, remaining);
+		}
+	}
+
+	/*
+	 * Read the lockout's file on the background thread, then update the lockout again.
+	 */
+	private void loadLockout(final PinLockout lockout) {
+		if (mLoadingLockout == lockout) {
+			return; // already queued
+		}
+		mLoadingLockout = lockout;
+		PinVerification.getDefaultExecutor().execute(new Runnable() {
+			@Override
+			public void run() {
+				lockout.load();
+				PinVerification.getMainHandler().post(new Runnable() {
+					@Override
+					public void run() {
+						if (mLoadingLockout == lockout) {
+							mLoadingLockout = null;
+						}
+						if (mPinLockout == lockout) {
+							updateLockout();
+						}
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Returns true if edits to the pin are currently blocked, e.g. while a verification is in
+	 * flight or during a lockout.
+	 *
+	 * @see #setLockInputWhileVerifying(boolean)
+	 * @see #setPinLockout(PinLockout)
+	 */
+	public boolean isInputLocked() {
+		return mInputLocks != 0;
+	}
+
+	private boolean hasInputLock(int lock) {
+		return (mInputLocks & lock) != 0;
+	}
+
+	private void addInputLock(int lock) {
+		mInputLocks |= lock;
+	}
+
+	private void removeInputLock(int lock) {
+		mInputLocks &= ~lock;
+	}
+
 	private InputMethodManager getInputMethodManager() {
 		return (InputMethodManager) getContext().getSystemService(Context.INPUT_METHOD_SERVICE);
 	}
 
 	@Override
 	public boolean onCheckIsTextEditor() {
-		Log.d(TAG, "[onCheckIsTextEditor]");
+		if (DEBUG) Log.d(TAG, "[onCheckIsTextEditor]");
 		return true;
 	}
 
-	/*package*/ TextView getInputTextView() {
-		return mPinText;
+	/*package*/ PinModel getPinModel() {
+		return mPinModel;
+	}
+
+	/*package*/ PinBuffer getPinBuffer() {
+		return mPinBuffer;
 	}
 
-	@SuppressLint("InlinedApi")
 	@Override
 	public InputConnection onCreateInputConnection(EditorInfo outAttrs) {
-		Log.d(TAG, "[onCreateInputConnection]");
+		if (DEBUG) Log.d(TAG, "[onCreateInputConnection]");
+		final PinCodeMetrics metrics = mMetrics;
+		if (metrics == null) {
+			return createInputConnection(outAttrs);
+		}
+
+		final long start = metrics.now();
+		final InputConnection connection = createInputConnection(outAttrs);
+		metrics.onEvent(PinCodeMetrics.EVENT_CREATE_INPUT_CONNECTION, metrics.now() - start);
+		return connection;
+	}
+
+	@SuppressLint("InlinedApi")
+	private InputConnection createInputConnection(EditorInfo outAttrs) {
 		if (!isEnabled()) {
 			return null;
 		}
@@ -481,8 +1780,9 @@ public class PinCodeView extends LinearLayout {
 		outAttrs.imeOptions = mInputContentInfo.imeOptions;
 		outAttrs.actionLabel = mInputContentInfo.imeActionLabel;
 		outAttrs.actionId = mInputContentInfo.imeActionId;
-		outAttrs.initialSelStart = Selection.getSelectionStart(mPinText.getText());
-		outAttrs.initialSelEnd = Selection.getSelectionEnd(mPinText.getText());
+		// the cursor is always at the end of the pin
+		outAttrs.initialSelStart = mPinBuffer.length();
+		outAttrs.initialSelEnd = mPinBuffer.length();
 
 		if (focusSearch(FOCUS_DOWN) != null) {
 			outAttrs.imeOptions |= EditorInfo.IME_FLAG_NAVIGATE_NEXT;
@@ -504,13 +1804,21 @@ public class PinCodeView extends LinearLayout {
 		}
 		// @formatter:on
 
-		PinCodeInputConnection connection = new PinCodeInputConnection(this);
-		return connection;
+		// pins never need the fullscreen extract UI
+		outAttrs.imeOptions |= EditorInfo.IME_FLAG_NO_EXTRACT_UI;
+
+		// one connection is reused for every input method that connects
+		if (mInputConnection == null) {
+			mInputConnection = new PinCodeInputConnection(this);
+		} else {
+			mInputConnection.reset();
+		}
+		return mInputConnection;
 	}
 
 	@TargetApi(Build.VERSION_CODES.HONEYCOMB)
 	/*package*/ void onEditorAction(int actionId) {
-		Log.d(TAG, "[onEditorAction]");
+		if (DEBUG) Log.d(TAG, "[onEditorAction]");
 		if (mInputContentInfo.onEditorActionListener != null) {
 			if (mInputContentInfo.onEditorActionListener.onEditorAction(this, actionId, null)) {
 				return;
@@ -561,27 +1869,57 @@ public class PinCodeView extends LinearLayout {
 	}
 
 	/*package*/ void onPrivateIMECommand(String action, Bundle data) {
-		Log.d(TAG, "[onPrivateIMECommand]");
-		mPinText.onPrivateIMECommand(action, data);
+		if (DEBUG) Log.d(TAG, "[onPrivateIMECommand]");
+		// no private commands are supported
 	}
 
-	/*package*/ KeyListener getKeyListener() {
-		Log.d(TAG, "[getKeyListener]");
-		return mPinText.getKeyListener();
+	/*package*/ boolean onTextContextMenuItem(int id) {
+		if (DEBUG) Log.d(TAG, "[onTextContextMenuItem]");
+		if (id == android.R.id.paste) {
+			if (!isInputLocked()) paste();
+			return true;
+		}
+		return false;
 	}
 
-	@Override
-	public boolean onKeyPreIme(int keyCode, KeyEvent event) {
-		Log.d(TAG, "[onKeyPreIme]");
-		if (keyCode == KeyEvent.KEYCODE_DPAD_CENTER || keyCode == KeyEvent.KEYCODE_ENTER) {
-			return super.onKeyPreIme(keyCode, event);
+	/*
+	 * Replace the current pin with the text on the clipboard. Characters that are not accepted or
+	 * do not fit are dropped.
+	 */
+	private void paste() {
+		CharSequence text = (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB)
+				? getClipboardText() : getClipboardTextCompat();
+		if (text != null) {
+			setPin(text);
+		}
+	}
+
+	@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+	private CharSequence getClipboardText() {
+		android.content.ClipboardManager clipboard = (android.content.ClipboardManager)
+				getContext().getSystemService(Context.CLIPBOARD_SERVICE);
+		ClipData clip = clipboard != null ? clipboard.getPrimaryClip() : null;
+		if (clip == null || clip.getItemCount() == 0) {
+			return null;
 		}
-		return mPinText.onKeyPreIme(keyCode, event);
+		return clip.getItemAt(0).coerceToText(getContext());
+	}
+
+	@SuppressWarnings("deprecation")
+	private CharSequence getClipboardTextCompat() {
+		android.text.ClipboardManager clipboard = (android.text.ClipboardManager)
+				getContext().getSystemService(Context.CLIPBOARD_SERVICE);
+		return clipboard != null ? clipboard.getText() : null;
+	}
+
+	/*package*/ KeyListener getKeyListener() {
+		if (DEBUG) Log.d(TAG, "[getKeyListener]");
+		return mKeyListener;
 	}
 
 	@Override
 	public boolean onKeyDown(int keyCode, KeyEvent event) {
-		Log.d(TAG, "[onKeyDown]");
+		if (DEBUG) Log.d(TAG, "[onKeyDown]");
 		int which = doKeyDown(keyCode, event, null);
 		if (which == 0) {
 			// go through default dispatching
@@ -593,7 +1931,7 @@ public class PinCodeView extends LinearLayout {
 	@TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
 	@Override
 	public boolean onKeyUp(int keyCode, KeyEvent event) {
-		Log.d(TAG, "[onKeyUp]");
+		if (DEBUG) Log.d(TAG, "[onKeyUp]");
 		if (!isEnabled()) {
 			return super.onKeyUp(keyCode, event);
 		}
@@ -659,25 +1997,27 @@ public class PinCodeView extends LinearLayout {
 			return super.onKeyUp(keyCode, event);
 		}
 
-		if (mPinText.getKeyListener() != null) {
-			if (mPinText.getKeyListener().onKeyUp(mPinText, mPinText.getEditableText(), keyCode,
-					event)) {
+		if (mKeyListener != null) {
+			if (mKeyListener.onKeyUp(this, mPinBuffer, keyCode, event)) {
 				return true;
 			}
 		}
 		return super.onKeyUp(keyCode, event);
 	}
 
-	@TargetApi(Build.VERSION_CODES.ECLAIR)
-	@Override
-	public boolean onKeyLongPress(int keyCode, KeyEvent event) {
-		Log.d(TAG, "[onKeyLongPress]");
-		return mPinText.onKeyLongPress(keyCode, event);
-	}
-
 	@Override
 	public boolean onKeyMultiple(int keyCode, int repeatCount, KeyEvent event) {
-		Log.d(TAG, "[onKeyMultiple]");
+		if (DEBUG) Log.d(TAG, "[onKeyMultiple]");
+		final PinCodeMetrics metrics = mMetrics;
+		final long start = metrics != null ? metrics.now() : 0;
+		final boolean handled = handleKeyMultiple(keyCode, repeatCount, event);
+		if (metrics != null && handled) {
+			metrics.onEvent(PinCodeMetrics.EVENT_KEY_DOWN, metrics.now() - start);
+		}
+		if (handled) {
+			return true;
+		}
+
 		KeyEvent down = KeyEvent.changeAction(event, KeyEvent.ACTION_DOWN);
 
 		int which = doKeyDown(keyCode, down, event);
@@ -695,29 +2035,132 @@ public class PinCodeView extends LinearLayout {
 		KeyEvent up = KeyEvent.changeAction(event, KeyEvent.ACTION_UP);
 		if (which == 1) {
 			// keyListener not null from doKeyDown
-			KeyListener keyListener = mPinText.getKeyListener();
-			Editable text = mPinText.getEditableText();
+			KeyListener keyListener = mKeyListener;
+			PinBuffer text = mPinBuffer;
 
-			keyListener.onKeyUp(mPinText, text, keyCode, up);
+			keyListener.onKeyUp(this, text, keyCode, up);
 			while (--repeatCount > 0) {
-				keyListener.onKeyDown(mPinText, text, keyCode, down);
-				keyListener.onKeyUp(mPinText, text, keyCode, up);
+				keyListener.onKeyDown(this, text, keyCode, down);
+				keyListener.onKeyUp(this, text, keyCode, up);
+			}
+		}
+
+		return true;
+	}
+
+	/*
+	 * Apply a character string, or a burst of repeats of a character or delete key, as a single
+	 * edit. Repeats are cut to what fits before editing, so a long burst costs the same as a short
+	 * one. Returns false for other keys, which go through the key listener.
+	 */
+	private boolean handleKeyMultiple(int keyCode, int repeatCount, KeyEvent event) {
+		if (!isEnabled()) {
+			return false;
+		}
+
+		final PinBuffer text = mPinBuffer;
+		final int length = text.length();
+		if (keyCode == KeyEvent.KEYCODE_UNKNOWN) {
+			final String characters = event.getCharacters();
+			if (characters == null) {
+				return false;
 			}
+			if (!isInputLocked()) {
+				// the model drops whatever doesn't fit before copying anything
+				text.replace(length, length, characters);
+			}
+			return true;
+		}
+
+		if (keyCode == KeyEvent.KEYCODE_DEL) {
+			if (!isInputLocked()) {
+				final int count = Math.min(repeatCount, length);
+				if (count > 0) {
+					text.delete(length - count, length);
+				}
+			}
+			return true;
 		}
 
+		final char c = (char) event.getUnicodeChar(event.getMetaState());
+		if (c == 0 || !mPinModel.getCharset().accept(c)) {
+			return false;
+		}
+		if (!isInputLocked()) {
+			final int count = Math.min(repeatCount, mMaxPinLength - length);
+			if (count > 0) {
+				mRepeatedChar.set(c, count);
+				text.replace(length, length, mRepeatedChar, 0, count);
+			}
+		}
 		return true;
 	}
 
+	/*
+	 * A character repeated a number of times, reused to insert key repeats without allocating.
+	 */
+	private static class RepeatedChar implements CharSequence {
+		private char mChar;
+		private int mCount;
+
+		void set(char c, int count) {
+			mChar = c;
+			mCount = count;
+		}
+
+		@Override
+		public int length() {
+			return mCount;
+		}
+
+		@Override
+		public char charAt(int index) {
+			if (index < 0 || index >= mCount) {
+				throw new IndexOutOfBoundsException("charAt: " + index + " out of 0 ... " + mCount);
+			}
+			return mChar;
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			final RepeatedChar sub = new RepeatedChar();
+			sub.set(mChar, end - start);
+			return sub;
+		}
+
+		@Override
+		public String toString() {
+			final char[] chars = new char[mCount];
+			Arrays.fill(chars, mChar);
+			return new String(chars);
+		}
+	}
+
 	@Override
 	public boolean onKeyShortcut(int keyCode, KeyEvent event) {
-		Log.d(TAG, "[onKeyShortcut]");
-		return mPinText.onKeyShortcut(keyCode, event);
+		if (DEBUG) Log.d(TAG, "[onKeyShortcut]");
+		if (keyCode == KeyEvent.KEYCODE_V) {
+			return onTextContextMenuItem(android.R.id.paste);
+		}
+		return super.onKeyShortcut(keyCode, event);
 	}
 
 	/*
 	 * Helper for other key event callbacks.
 	 */
 	private int doKeyDown(int keyCode, KeyEvent event, KeyEvent otherEvent) {
+		final PinCodeMetrics metrics = mMetrics;
+		if (metrics == null) {
+			return handleKeyDown(keyCode, event, otherEvent);
+		}
+
+		final long start = metrics.now();
+		final int which = handleKeyDown(keyCode, event, otherEvent);
+		metrics.onEvent(PinCodeMetrics.EVENT_KEY_DOWN, metrics.now() - start);
+		return which;
+	}
+
+	private int handleKeyDown(int keyCode, KeyEvent event, KeyEvent otherEvent) {
 		if (!isEnabled()) {
 			return 0;
 		}
@@ -745,24 +2188,26 @@ public class PinCodeView extends LinearLayout {
 			return 0; // dispatch to super
 		}
 
+		if (isInputLocked()) {
+			return -1; // consumed, no edits allowed
+		}
+
 		// key listener should always be non-null
-		KeyListener keyListener = mPinText.getKeyListener();
+		KeyListener keyListener = mKeyListener;
 		if (keyListener != null) {
 			boolean doDown = true;
 			if (otherEvent != null) {
-				mPinText.beginBatchEdit();
-				final boolean handled = keyListener.onKeyOther(mPinText,
-						mPinText.getEditableText(), otherEvent);
+				mPinBuffer.beginBatchEdit();
+				final boolean handled = keyListener.onKeyOther(this, mPinBuffer, otherEvent);
 				doDown = false;
-				mPinText.endBatchEdit();
+				mPinBuffer.endBatchEdit();
 				if (handled) return -1; // consumed
 			}
 
 			if (doDown) {
-				mPinText.beginBatchEdit();
-				final boolean handled = keyListener.onKeyDown(mPinText, mPinText.getEditableText(),
-						keyCode, event);
-				mPinText.endBatchEdit();
+				mPinBuffer.beginBatchEdit();
+				final boolean handled = keyListener.onKeyDown(this, mPinBuffer, keyCode, event);
+				mPinBuffer.endBatchEdit();
 				if (handled) return 1; // edited text
 			}
 		}
@@ -770,6 +2215,91 @@ public class PinCodeView extends LinearLayout {
 		return 0; // dispatch to super
 	}
 
+	@Override
+	protected void onAttachedToWindow() {
+		super.onAttachedToWindow();
+		// the lockout may have ended while detached
+		if (mPinLockout != null) {
+			updateLockout();
+		}
+	}
+
+	@Override
+	protected void onDetachedFromWindow() {
+		super.onDetachedFromWindow();
+		cancelVerification();
+		removeCallbacks(mLockoutEnd);
+		mFeedbackAnimator.cancel();
+		cancelPinChanged();
+		cancelAnnouncement();
+	}
+
+	@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+	@Override
+	public AccessibilityNodeProvider getAccessibilityNodeProvider() {
+		if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+			return super.getAccessibilityNodeProvider();
+		}
+		if (mAccessibilityProvider == null) {
+			mAccessibilityProvider = new PinAccessibilityProvider(this);
+		}
+		return mAccessibilityProvider;
+	}
+
+	@TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+	@Override
+	public void onInitializeAccessibilityNodeInfo(AccessibilityNodeInfo info) {
+		super.onInitializeAccessibilityNodeInfo(info);
+		info.setClassName(EditText.class.getName());
+		info.setPassword(true);
+		if (getContentDescription() == null) {
+			info.setContentDescription(getProgressDescription());
+		}
+	}
+
+	@TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+	@Override
+	public void onInitializeAccessibilityEvent(AccessibilityEvent event) {
+		super.onInitializeAccessibilityEvent(event);
+		event.setClassName(EditText.class.getName());
+		event.setPassword(true);
+	}
+
+	/*
+	 * Describe the progress instead of letting every indicator add itself to the event.
+	 */
+	@Override
+	public boolean dispatchPopulateAccessibilityEvent(AccessibilityEvent event) {
+		final CharSequence description = getContentDescription();
+		if (description != null) {
+			event.getText().add(description);
+		}
+		event.getText().add(getProgressDescription());
+		return true;
+	}
+
+	/*
+	 * Returns e.g. "3 of 6 digits entered", which tells how far entry is without revealing the pin.
+	 */
+	private String getProgressDescription() {
+		final int resId = mPinModel.getCharset().isDigitsOnly()
+				? R.plurals.pin_accessibility_progress_digits
+				: R.plurals.pin_accessibility_progress_characters;
+		return getResources().getQuantityString(resId, mMaxPinLength, getPinLength(),
+				mMaxPinLength);
+	}
+
+	/*package*/ String getCellDescription(int index) {
+		final int resId = index < getPinLength() ? R.string.pin_accessibility_cell_filled
+				: R.string.pin_accessibility_cell_empty;
+		return getResources().getString(resId, index + 1);
+	}
+
+	/*package*/ void getCellBounds(int index, Rect bounds) {
+		final int left = getCellLeft(index);
+		bounds.set(left, mCellsTop, left + mCellWidth, mCellsTop + mCellHeight);
+	}
+
 	@Override
 	public void setOnClickListener(OnClickListener listener) {
 		super.setOnClickListener(listener);
@@ -788,22 +2318,34 @@ public class PinCodeView extends LinearLayout {
 
 	@Override
 	protected Parcelable onSaveInstanceState() {
-		Log.d(TAG, "[onSaveInstanceState]");
+		if (DEBUG) Log.d(TAG, "[onSaveInstanceState]");
 		Parcelable superState = super.onSaveInstanceState();
 
-		CharSequence text = mPinText.getText();
-		if (!TextUtils.isEmpty(text)) {
-			SavedState ss = new SavedState(superState);
-			ss.text = text;
-			return ss;
+		if (mPinModel.isEmpty() || mPinSaveMode == SAVE_PIN_NONE) {
+			return superState;
+		}
+
+		final byte[] data;
+		if (mPinSaveMode == SAVE_PIN_ENCRYPTED) {
+			try {
+				data = PinStateCodec.encrypt(mPinModel);
+			} catch (GeneralSecurityException e) {
+				Log.w(TAG, "Failed to encrypt the pin, it won't be saved", e);
+				return superState;
+			}
+		} else {
+			data = PinStateCodec.encode(mPinModel);
 		}
 
-		return superState;
+		SavedState ss = new SavedState(superState);
+		ss.data = data;
+		mSavedState = ss;
+		return ss;
 	}
 
 	@Override
 	protected void onRestoreInstanceState(Parcelable state) {
-		Log.d(TAG, "[onRestoreInstanceState]");
+		if (DEBUG) Log.d(TAG, "[onRestoreInstanceState]");
 		if (!(state instanceof SavedState)) {
 			super.onRestoreInstanceState(state);
 			return;
@@ -812,14 +2354,24 @@ public class PinCodeView extends LinearLayout {
 		SavedState ss = (SavedState) state;
 		super.onRestoreInstanceState(ss.getSuperState());
 
-		if (ss.text != null) {
-			mPinText.setText(ss.text);
-			Selection.setSelection(mPinText.getEditableText(), ss.text.length());
+		final char[] pin = PinStateCodec.decode(ss.data);
+		ss.wipe();
+		if (pin != null) {
+			mRestoring = true;
+			try {
+				mPinBuffer.replace(0, mPinBuffer.length(), CharBuffer.wrap(pin));
+			} finally {
+				mRestoring = false;
+			}
+			Arrays.fill(pin, '\0');
+			// a restored pin shouldn't animate in
+			mFeedbackAnimator.cancel();
 		}
 	}
 
 	public static class SavedState extends BaseSavedState {
-		private CharSequence text;
+		// the pin encoded by PinStateCodec
+		private byte[] data;
 
 		public SavedState(Parcelable superState) {
 			super(superState);
@@ -827,14 +2379,21 @@ public class PinCodeView extends LinearLayout {
 
 		private SavedState(Parcel source) {
 			super(source);
-			text = TextUtils.CHAR_SEQUENCE_CREATOR.createFromParcel(source);
+			data = source.createByteArray();
 		}
 
 		@Override
 		public void writeToParcel(Parcel dest, int flags) {
-			Log.d(TAG, "[writeToParcel]");
+			if (DEBUG) Log.d(TAG, "[writeToParcel]");
 			super.writeToParcel(dest, flags);
-			TextUtils.writeToParcel(text, dest, flags);
+			dest.writeByteArray(data);
+		}
+
+		/* zero-fill the saved copy of the pin */
+		private void wipe() {
+			if (data != null) {
+				Arrays.fill(data, (byte) 0);
+			}
 		}
 
 		// @formatter:off
@@ -855,8 +2414,15 @@ public class PinCodeView extends LinearLayout {
 		private static final int[] STATE_EMPTY = { android.R.attr.state_empty };
 		private static final int[] STATE_ACTIVE = { android.R.attr.state_active };
 
-		private boolean mIsEmpty;
-		private boolean mIsActive;
+		private int mIndicatorState;
+
+		// the shared drawables this indicator's own copies were made from
+		private Drawable mDrawableSource;
+		private Drawable mBackgroundSource;
+
+		// merged drawable states indexed by INDICATOR_STATE_* flags, valid for mCachedBaseState
+		private final int[][] mCachedStates = new int[4][];
+		private int[] mCachedBaseState;
 
 		public PinIndicator(Context context) {
 			super(context);
@@ -870,30 +2436,90 @@ public class PinCodeView extends LinearLayout {
 			super(context, attrs, defStyle);
 		}
 
-		public void setIsEmpty(boolean isEmpty) {
-			if (mIsEmpty != isEmpty) {
-				mIsEmpty = isEmpty;
+		/**
+		 * Set the INDICATOR_STATE_* flags of this indicator, refreshing the drawable state once if
+		 * any of them changed.
+		 */
+		public void setIndicatorState(int indicatorState) {
+			if (mIndicatorState != indicatorState) {
+				mIndicatorState = indicatorState;
 				refreshDrawableState();
 			}
 		}
 
-		public void setIsActive(boolean isActive) {
-			if (mIsActive != isActive) {
-				mIsActive = isActive;
-				refreshDrawableState();
+		/**
+		 * Show copies of the given drawables, unless this indicator already shows copies of them.
+		 * Each indicator keeps its own drawable state, so a state change only invalidates this
+		 * indicator.
+		 */
+		@SuppressWarnings("deprecation")
+		@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+		public void setIndicatorDrawables(Drawable drawable, Drawable background) {
+			if (mDrawableSource != drawable) {
+				mDrawableSource = drawable;
+				setImageDrawable(newDrawable(drawable));
+			}
+			if (mBackgroundSource != background) {
+				mBackgroundSource = background;
+				if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+					setBackground(newDrawable(background));
+				} else {
+					setBackgroundDrawable(newDrawable(background));
+				}
+			}
+		}
+
+		/*
+		 * Returns a new drawable made from the constant state of the given one. It is mutated
+		 * before this indicator changes its state or alpha: the drawables of a state list share
+		 * their children and a bitmap's paint is shared too, so without it a change would reach
+		 * every indicator. Bitmaps stay shared. A drawable without a constant state is returned
+		 * as it is.
+		 */
+		@TargetApi(Build.VERSION_CODES.ECLAIR)
+		private Drawable newDrawable(Drawable d) {
+			final Drawable.ConstantState constantState = d != null ? d.getConstantState() : null;
+			if (constantState == null) {
+				return d;
 			}
+			if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ECLAIR) {
+				return constantState.newDrawable(getResources()).mutate();
+			}
+			return constantState.newDrawable().mutate();
 		}
 
 		@Override
 		public int[] onCreateDrawableState(int extraSpace) {
-			int[] state = super.onCreateDrawableState(extraSpace + 2);
-			if (mIsEmpty) {
+			if (extraSpace != 0) {
+				int[] state = super.onCreateDrawableState(extraSpace + 2);
+				mergeIndicatorStates(state);
+				return state;
+			}
+
+			// the base state arrays are shared by the framework, so they can key our cache
+			final int[] base = super.onCreateDrawableState(0);
+			if (base != mCachedBaseState) {
+				mCachedBaseState = base;
+				Arrays.fill(mCachedStates, null);
+			}
+
+			int[] state = mCachedStates[mIndicatorState];
+			if (state == null) {
+				state = new int[base.length + 2];
+				System.arraycopy(base, 0, state, 0, base.length);
+				mergeIndicatorStates(state);
+				mCachedStates[mIndicatorState] = state;
+			}
+			return state;
+		}
+
+		private void mergeIndicatorStates(int[] state) {
+			if ((mIndicatorState & INDICATOR_STATE_EMPTY) != 0) {
 				mergeDrawableStates(state, STATE_EMPTY);
 			}
-			if (mIsActive) {
+			if ((mIndicatorState & INDICATOR_STATE_ACTIVE) != 0) {
 				mergeDrawableStates(state, STATE_ACTIVE);
 			}
-			return state;
 		}
 	}
 }
@@ -0,0 +1,268 @@
+/*
+ * Copyright (C) 2013 Karakuri <karakuri.dev@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.karakuri.lib.pincodeview;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.content.res.Resources;
+import android.content.res.TypedArray;
+import android.graphics.drawable.Drawable;
+import android.os.Build;
+import android.util.AttributeSet;
+import android.view.inputmethod.EditorInfo;
+
+/**
+ * The styled attributes of a {@link PinCodeView}, resolved once so they can be applied to any
+ * number of views. Drawables are kept as their {@link Drawable.ConstantState}, so each view gets
+ * its own drawable sharing the same bitmaps.
+ *
+ * @see PinCodeView#PinCodeView(Context, PinCodeViewConfig)
+ * @see PinCodeView#applyConfig(PinCodeViewConfig)
+ */
+public final class PinCodeViewConfig {
+	private static final int DEFAULT_PIN_LENGTH = 4;
+	private static final int DEFAULT_FEEDBACK_DURATION = 400;
+	private static final int DEFAULT_SHAKE_DISTANCE_DIP = 8;
+
+	private int mMaxPinLength = DEFAULT_PIN_LENGTH;
+	private int mInputType = PinCodeView.INPUT_TYPE_NUMERIC;
+	private PinCharset mCharset;
+	private int mImeOptions = EditorInfo.TYPE_NULL;
+	private CharSequence mImeActionLabel;
+	private int mImeActionId;
+	private Drawable.ConstantState mIndicatorState;
+	private Drawable mIndicatorDrawable;
+	private Drawable.ConstantState mBackgroundState;
+	private Drawable mBackgroundDrawable;
+	private int mRenderMode = PinCodeView.RENDER_MODE_VIEWS;
+	private int mSaveMode = PinCodeView.SAVE_PIN_PLAIN;
+	private boolean mFillAnimation;
+	private int mFeedbackDuration = DEFAULT_FEEDBACK_DURATION;
+	private float mShakeDistance;
+	private int mCellSize;
+	private int mCellSpacing;
+	private float mCellAspectRatio;
+
+	private PinCodeViewConfig(Context context) {
+		mShakeDistance = DEFAULT_SHAKE_DISTANCE_DIP
+				* context.getResources().getDisplayMetrics().density;
+	}
+
+	/**
+	 * Resolve the configuration of a style resource, e.g. to create many views with
+	 * {@link PinCodeView#PinCodeView(Context, PinCodeViewConfig)}.
+	 */
+	public static PinCodeViewConfig fromStyle(Context context, int styleRes) {
+		PinCodeViewConfig config = new PinCodeViewConfig(context);
+		TypedArray a = context.obtainStyledAttributes(styleRes, R.styleable.PinCodeView);
+		try {
+			config.read(a);
+		} finally {
+			a.recycle();
+		}
+		return config;
+	}
+
+	/**
+	 * Resolve the configuration of a view being inflated. Each call resolves the attributes again,
+	 * so the result always reflects the current theme and configuration; to share one resolved
+	 * configuration between many views, use {@link #fromStyle(Context, int)}.
+	 */
+	public static PinCodeViewConfig obtain(Context context, AttributeSet attrs, int defStyle) {
+		PinCodeViewConfig config = new PinCodeViewConfig(context);
+		TypedArray a = context.obtainStyledAttributes(attrs, R.styleable.PinCodeView, defStyle, 0);
+		try {
+			config.read(a);
+		} finally {
+			a.recycle();
+		}
+		return config;
+	}
+
+	private void read(TypedArray a) {
+		boolean hasInputType = false;
+		CharSequence charsetChars = null;
+		int charsetNormalization = 0;
+
+		final int N = a.getIndexCount();
+		for (int i = 0; i < N; i++) {
+			int attr = a.getIndex(i);
+
+			switch (attr) {
+			case R.styleable.PinCodeView_pinLength:
+				mMaxPinLength = a.getInt(attr, mMaxPinLength);
+				break;
+			case R.styleable.PinCodeView_inputType:
+				mInputType = a.getInt(attr, mInputType);
+				hasInputType = true;
+				break;
+			case R.styleable.PinCodeView_pinCharset:
+				charsetChars = a.getText(attr);
+				break;
+			case R.styleable.PinCodeView_pinCharsetNormalization:
+				charsetNormalization = a.getInt(attr, 0);
+				break;
+			case R.styleable.PinCodeView_android_imeOptions:
+				mImeOptions = a.getInt(attr, mImeOptions);
+				break;
+			case R.styleable.PinCodeView_android_imeActionLabel:
+				mImeActionLabel = a.getText(attr);
+				break;
+			case R.styleable.PinCodeView_android_imeActionId:
+				mImeActionId = a.getInt(attr, 0);
+				break;
+			case R.styleable.PinCodeView_pinIndicatorDrawable:
+				mIndicatorDrawable = a.getDrawable(attr);
+				mIndicatorState = getConstantState(mIndicatorDrawable);
+				break;
+			case R.styleable.PinCodeView_pinIndicatorBackground:
+				mBackgroundDrawable = a.getDrawable(attr);
+				mBackgroundState = getConstantState(mBackgroundDrawable);
+				break;
+			case R.styleable.PinCodeView_pinRenderMode:
+				mRenderMode = a.getInt(attr, mRenderMode);
+				break;
+			case R.styleable.PinCodeView_pinSaveMode:
+				mSaveMode = a.getInt(attr, mSaveMode);
+				break;
+			case R.styleable.PinCodeView_pinFillAnimation:
+				mFillAnimation = a.getBoolean(attr, mFillAnimation);
+				break;
+			case R.styleable.PinCodeView_pinFeedbackDuration:
+				mFeedbackDuration = a.getInt(attr, mFeedbackDuration);
+				break;
+			case R.styleable.PinCodeView_pinShakeDistance:
+				mShakeDistance = a.getDimension(attr, mShakeDistance);
+				break;
+			case R.styleable.PinCodeView_pinCellSize:
+				mCellSize = a.getDimensionPixelSize(attr, mCellSize);
+				break;
+			case R.styleable.PinCodeView_pinCellSpacing:
+				mCellSpacing = a.getDimensionPixelSize(attr, mCellSpacing);
+				break;
+			case R.styleable.PinCodeView_pinCellAspectRatio:
+				mCellAspectRatio = a.getFloat(attr, mCellAspectRatio);
+				break;
+			}
+		}
+
+		// a charset alone means the custom input type; the lookup table is built once here
+		if (charsetChars != null) {
+			mCharset = PinCharset.of(charsetChars, charsetNormalization);
+			if (!hasInputType) {
+				mInputType = PinCodeView.INPUT_TYPE_CUSTOM;
+			}
+		}
+
+		// keep only the constant states, so no drawable is tied to the first view
+		if (mIndicatorState != null) {
+			mIndicatorDrawable = null;
+		}
+		if (mBackgroundState != null) {
+			mBackgroundDrawable = null;
+		}
+	}
+
+	private static Drawable.ConstantState getConstantState(Drawable d) {
+		return d != null ? d.getConstantState() : null;
+	}
+
+	public int getMaxPinLength() {
+		return mMaxPinLength;
+	}
+
+	public int getInputType() {
+		return mInputType;
+	}
+
+	/**
+	 * Returns the charset given by the pinCharset attribute, or null if there is none.
+	 */
+	public PinCharset getCharset() {
+		return mCharset;
+	}
+
+	public int getImeOptions() {
+		return mImeOptions;
+	}
+
+	public CharSequence getImeActionLabel() {
+		return mImeActionLabel;
+	}
+
+	public int getImeActionId() {
+		return mImeActionId;
+	}
+
+	public int getRenderMode() {
+		return mRenderMode;
+	}
+
+	public int getPinSaveMode() {
+		return mSaveMode;
+	}
+
+	public boolean isFillAnimationEnabled() {
+		return mFillAnimation;
+	}
+
+	public int getFeedbackDuration() {
+		return mFeedbackDuration;
+	}
+
+	public float getShakeDistance() {
+		return mShakeDistance;
+	}
+
+	public int getCellSize() {
+		return mCellSize;
+	}
+
+	public int getCellSpacing() {
+		return mCellSpacing;
+	}
+
+	public float getCellAspectRatio() {
+		return mCellAspectRatio;
+	}
+
+	/**
+	 * Returns a new indicator drawable for a view, or null if none is set.
+	 */
+	public Drawable newIndicatorDrawable(Resources res) {
+		return newDrawable(mIndicatorState, mIndicatorDrawable, res);
+	}
+
+	/**
+	 * Returns a new indicator background drawable for a view, or null if none is set.
+	 */
+	public Drawable newIndicatorBackground(Resources res) {
+		return newDrawable(mBackgroundState, mBackgroundDrawable, res);
+	}
+
+	/*
+	 * A drawable without a constant state can't be copied, so it is shared as it is.
+	 */
+	@TargetApi(Build.VERSION_CODES.ECLAIR)
+	private static Drawable newDrawable(Drawable.ConstantState state, Drawable drawable,
+			Resources res) {
+		if (state == null) {
+			return drawable;
+		}
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ECLAIR) {
+			return state.newDrawable(res);
+		}
+		return state.newDrawable();
+	}
+}
@@ -0,0 +1,311 @@
+/*
+ * Copyright (C) 2013 Karakuri <karakuri.dev@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.karakuri.lib.pincodeview;
+
+import android.annotation.TargetApi;
+import android.graphics.Canvas;
+import android.os.Build;
+import android.view.View;
+import android.view.animation.AnimationUtils;
+
+/**
+ * Runs the feedback animations of a {@link PinCodeView}: indicators popping in as they are filled,
+ * a shake for an error and a pulse for success. A single instance drives all of them from one
+ * {@link Runnable} posted once per frame, and nothing is allocated while animating.
+ * <p>
+ * The shake and the pulse move the whole view. On Honeycomb and later they set the view's
+ * translation and scale properties on a hardware layer, so the content is not redrawn; the values
+ * the app had set are kept underneath the effect and put back when it ends. Before that the view
+ * applies {@link #applyViewTransform(Canvas)} when drawing. The fill animation
+ * scales single cells while the view draws them, see {@link #getFillScale(int)}.
+ */
+/*package*/ class PinFeedbackAnimator implements Runnable {
+	/* values for the whole-view effect */
+	private static final int EFFECT_NONE = 0;
+	private static final int EFFECT_ERROR = 1;
+	private static final int EFFECT_SUCCESS = 2;
+
+	private static final long FILL_DURATION = 150;
+	private static final float FILL_FROM_SCALE = 0.6f;
+	private static final int SHAKE_CYCLES = 3;
+	private static final float SUCCESS_SCALE = 1.15f;
+	// frame interval used where Choreographer based posting is not available
+	private static final long FRAME_DELAY = 10;
+
+	private final PinCodeView mView;
+
+	private int mEffect = EFFECT_NONE;
+	private long mEffectStart;
+	private long mEffectDuration;
+	private float mShakeDistance;
+	private float mTranslationX;
+	private float mScale = 1f;
+	// the view's own transform, saved when an effect starts
+	private float mBaseTranslationX;
+	private float mBaseScaleX = 1f;
+	private float mBaseScaleY = 1f;
+	private boolean mLayerSet;
+	private int mSavedLayerType;
+
+	private boolean mFillEnabled;
+	// start time of the fill animation of each indicator, or 0 when it is not animating
+	private long[] mFillStart = new long[0];
+	private int mFillCount;
+
+	private boolean mScheduled;
+	private long mFrameTime;
+
+	public PinFeedbackAnimator(PinCodeView view) {
+		mView = view;
+	}
+
+	public void setIndicatorCount(int count) {
+		if (mFillStart.length != count) {
+			mFillStart = new long[count];
+			mFillCount = 0;
+		}
+	}
+
+	public void setFillEnabled(boolean enabled) {
+		mFillEnabled = enabled;
+		if (!enabled) {
+			cancelFill();
+		}
+	}
+
+	public boolean isFillEnabled() {
+		return mFillEnabled;
+	}
+
+	public void setShakeDistance(float distance) {
+		mShakeDistance = distance;
+	}
+
+	public float getShakeDistance() {
+		return mShakeDistance;
+	}
+
+	/**
+	 * Animate the indicators in [start ... end) filling in.
+	 */
+	public void onIndicatorsFilled(int start, int end) {
+		if (!mFillEnabled) {
+			return;
+		}
+
+		final long now = AnimationUtils.currentAnimationTimeMillis();
+		for (int i = start; i < end && i < mFillStart.length; i++) {
+			if (mFillStart[i] == 0) {
+				mFillCount++;
+			}
+			mFillStart[i] = now;
+			mView.invalidateIndicator(i);
+		}
+		mFrameTime = now;
+		schedule();
+	}
+
+	/**
+	 * Stop animating the indicators in [start ... end), e.g. because they were cleared.
+	 */
+	public void onIndicatorsCleared(int start, int end) {
+		for (int i = start; i < end && i < mFillStart.length; i++) {
+			if (mFillStart[i] != 0) {
+				mFillStart[i] = 0;
+				mFillCount--;
+			}
+		}
+	}
+
+	public void showError(long duration) {
+		startEffect(EFFECT_ERROR, duration);
+	}
+
+	public void showSuccess(long duration) {
+		startEffect(EFFECT_SUCCESS, duration);
+	}
+
+	/**
+	 * Stop all animations and put the view back as it was.
+	 */
+	public void cancel() {
+		cancelFill();
+		endEffect();
+		if (mScheduled) {
+			mScheduled = false;
+			mView.removeCallbacks(this);
+		}
+	}
+
+	/**
+	 * Returns the scale of the indicator at the given index for the current frame.
+	 */
+	public float getFillScale(int index) {
+		if (mFillCount == 0 || index >= mFillStart.length || mFillStart[index] == 0) {
+			return 1f;
+		}
+		final float t = Math.min(1f, (float) (mFrameTime - mFillStart[index]) / FILL_DURATION);
+		final float decelerated = 1f - (1f - t) * (1f - t);
+		return FILL_FROM_SCALE + (1f - FILL_FROM_SCALE) * decelerated;
+	}
+
+	/**
+	 * Returns true if the view needs to apply {@link #applyViewTransform(Canvas)} when drawing.
+	 */
+	public boolean hasViewTransform() {
+		return Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB
+				&& (mTranslationX != 0f || mScale != 1f);
+	}
+
+	/**
+	 * Apply the shake or pulse of the current frame to the canvas, before Honeycomb.
+	 */
+	public void applyViewTransform(Canvas canvas) {
+		canvas.translate(mTranslationX, 0f);
+		canvas.scale(mScale, mScale, mView.getWidth() / 2f, mView.getHeight() / 2f);
+	}
+
+	@Override
+	public void run() {
+		mScheduled = false;
+		final long now = AnimationUtils.currentAnimationTimeMillis();
+		mFrameTime = now;
+
+		if (mEffect != EFFECT_NONE) {
+			final float t = Math.min(1f, (float) (now - mEffectStart) / mEffectDuration);
+			if (t >= 1f) {
+				endEffect();
+			} else if (mEffect == EFFECT_ERROR) {
+				// a damped sine wave
+				setViewTransform(mShakeDistance * (1f - t)
+						* (float) Math.sin(t * SHAKE_CYCLES * 2 * Math.PI), 1f);
+			} else {
+				setViewTransform(0f, 1f + (SUCCESS_SCALE - 1f) * (float) Math.sin(t * Math.PI));
+			}
+		}
+
+		if (mFillCount > 0) {
+			for (int i = 0; i < mFillStart.length; i++) {
+				final long start = mFillStart[i];
+				if (start == 0) {
+					continue;
+				}
+				if (now - start >= FILL_DURATION) {
+					mFillStart[i] = 0;
+					mFillCount--;
+				}
+				mView.invalidateIndicator(i);
+			}
+		}
+
+		if (mEffect != EFFECT_NONE || mFillCount > 0) {
+			schedule();
+		}
+	}
+
+	private void startEffect(int effect, long duration) {
+		if (duration <= 0) {
+			endEffect();
+			return;
+		}
+
+		if (mEffect == EFFECT_NONE) {
+			saveViewTransform();
+			setHardwareLayer(true);
+		}
+		mEffect = effect;
+		mEffectStart = AnimationUtils.currentAnimationTimeMillis();
+		mEffectDuration = duration;
+		schedule();
+	}
+
+	private void endEffect() {
+		if (mEffect == EFFECT_NONE) {
+			return;
+		}
+		mEffect = EFFECT_NONE;
+		setViewTransform(0f, 1f);
+		setHardwareLayer(false);
+	}
+
+	private void cancelFill() {
+		if (mFillCount > 0) {
+			for (int i = 0; i < mFillStart.length; i++) {
+				if (mFillStart[i] != 0) {
+					mFillStart[i] = 0;
+					mView.invalidateIndicator(i);
+				}
+			}
+			mFillCount = 0;
+		}
+	}
+
+	@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+	private void saveViewTransform() {
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+			mBaseTranslationX = mView.getTranslationX();
+			mBaseScaleX = mView.getScaleX();
+			mBaseScaleY = mView.getScaleY();
+		}
+	}
+
+	/*
+	 * Set the effect's transform on top of the view's own, so (0, 1) puts the view back as it was.
+	 */
+	@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+	private void setViewTransform(float translationX, float scale) {
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+			mView.setTranslationX(mBaseTranslationX + translationX);
+			mView.setScaleX(mBaseScaleX * scale);
+			mView.setScaleY(mBaseScaleY * scale);
+			return;
+		}
+
+		if (mTranslationX != translationX || mScale != scale) {
+			mTranslationX = translationX;
+			mScale = scale;
+			mView.invalidate();
+		}
+	}
+
+	@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+	private void setHardwareLayer(boolean set) {
+		if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB || mLayerSet == set) {
+			return;
+		}
+		if (set) {
+			if (!mView.isHardwareAccelerated()) {
+				return;
+			}
+			mSavedLayerType = mView.getLayerType();
+			mView.setLayerType(View.LAYER_TYPE_HARDWARE, null);
+		} else {
+			mView.setLayerType(mSavedLayerType, null);
+		}
+		mLayerSet = set;
+	}
+
+	@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+	private void schedule() {
+		if (mScheduled) {
+			return;
+		}
+		mScheduled = true;
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+			mView.postOnAnimation(this);
+		} else {
+			mView.postDelayed(this, FRAME_DELAY);
+		}
+	}
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2013 Karakuri <karakuri.dev@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.karakuri.lib.pincodeview;
+
+/**
+ * The edits and text queries of a {@link PinCodeInputConnection}, on the view's {@link PinBuffer}.
+ * Composing text is entered into the pin right away, and only the start of the composing region is
+ * remembered so the input method can still replace it. The selection is always a cursor at the end
+ * of the pin.
+ * <p>
+ * This class does not depend on the Android framework; the connection supplies the view's input
+ * lock and metrics.
+ */
+/*package*/ abstract class PinInputEditor {
+	private final PinBuffer mPinBuffer;
+
+	// start of the composing text, which always runs to the end of the pin, or -1 if none
+	private int mComposingStart = -1;
+	private int mBatchDepth;
+
+	public PinInputEditor(PinBuffer buffer) {
+		mPinBuffer = buffer;
+	}
+
+	/**
+	 * Returns true if edits are currently blocked.
+	 */
+	protected abstract boolean isInputLocked();
+
+	/**
+	 * Returns the metrics to report edits to, or null.
+	 */
+	protected abstract PinCodeMetrics getMetrics();
+
+	/**
+	 * Forget the state left by the previous input method: its composing region and any batch edit
+	 * it did not finish.
+	 */
+	public void reset() {
+		mComposingStart = -1;
+		while (mBatchDepth > 0) {
+			endBatchEdit();
+		}
+	}
+
+	/*
+	 * Returns the start of the composing text, or -1 if there is none or it no longer fits the pin.
+	 */
+	private int getComposingStart() {
+		if (mComposingStart > mPinBuffer.length()) {
+			mComposingStart = -1;
+		}
+		return mComposingStart;
+	}
+
+	/*
+	 * Replace the composing text, or insert at the cursor, in a single edit. Returns the start of
+	 * the inserted text.
+	 */
+	private int replaceText(CharSequence text) {
+		final PinBuffer buffer = mPinBuffer;
+		final int end = buffer.length();
+		final int composingStart = getComposingStart();
+		final int start = composingStart >= 0 ? composingStart : end;
+		buffer.replace(start, end, text);
+		return start;
+	}
+
+	// text queries; each returns a copy, which the caller may keep
+
+	public CharSequence getTextBeforeCursor(int n) {
+		final int length = mPinBuffer.length();
+		return mPinBuffer.subSequence(Math.max(0, length - Math.max(0, n)), length);
+	}
+
+	public CharSequence getTextAfterCursor(int n) {
+		return "";
+	}
+
+	// edits
+
+	public boolean deleteSurroundingText(int beforeLength, int afterLength) {
+		if (isInputLocked()) return false;
+		final int length = mPinBuffer.length();
+		final int count = Math.min(Math.max(0, beforeLength), length);
+		if (count > 0) {
+			mPinBuffer.delete(length - count, length);
+		}
+		return true;
+	}
+
+	public boolean setComposingText(CharSequence text) {
+		if (isInputLocked()) return false;
+		final int start = replaceText(text);
+		// keep the region only if something was entered, so it can be replaced later
+		mComposingStart = mPinBuffer.length() > start ? start : -1;
+		return true;
+	}
+
+	public boolean setComposingRegion(int start, int end) {
+		if (isInputLocked()) return false;
+		final int length = mPinBuffer.length();
+		final int regionStart = Math.min(start, end);
+		// only a region reaching the cursor can be replaced, since the cursor is at the end
+		mComposingStart = (regionStart >= 0 && Math.max(start, end) >= length
+				&& regionStart < length) ? regionStart : -1;
+		return true;
+	}
+
+	public boolean finishComposingText() {
+		mComposingStart = -1;
+		return true;
+	}
+
+	public boolean commitText(CharSequence text) {
+		if (isInputLocked()) return false;
+		final PinCodeMetrics metrics = getMetrics();
+		final long start = metrics != null ? metrics.now() : 0;
+
+		replaceText(text);
+		mComposingStart = -1;
+
+		if (metrics != null) {
+			metrics.onEvent(PinCodeMetrics.EVENT_COMMIT_TEXT, metrics.now() - start);
+		}
+		return true;
+	}
+
+	public boolean beginBatchEdit() {
+		mBatchDepth++;
+		mPinBuffer.beginBatchEdit();
+		return true;
+	}
+
+	public boolean endBatchEdit() {
+		if (mBatchDepth > 0) {
+			mBatchDepth--;
+			mPinBuffer.endBatchEdit();
+		}
+		return mBatchDepth > 0;
+	}
+}
@@ -16,12 +16,23 @@
 package com.karakuri.lib.pincodeview;
 
 import android.annotation.SuppressLint;
+import android.text.Editable;
 import android.text.InputFilter;
 import android.text.Spanned;
+import android.text.method.MetaKeyKeyListener;
 import android.text.method.QwertyKeyListener;
 import android.text.method.TextKeyListener.Capitalize;
+import android.view.KeyCharacterMap;
+import android.view.KeyEvent;
+import android.view.View;
 import android.view.inputmethod.EditorInfo;
 
+/**
+ * The key listener of a {@link PinCodeView}, and an {@link InputFilter} for its {@link PinCharset}.
+ * Plain character and delete keys are applied to the {@link PinBuffer} directly, without
+ * allocating; everything else, such as meta keys and dead keys, is handled by
+ * {@link QwertyKeyListener}.
+ */
 public class PinKeyListener extends QwertyKeyListener implements InputFilter {
 	private static final String TAG = "PinKeyListener";
 
@@ -33,51 +44,51 @@ public class PinKeyListener extends QwertyKeyListener implements InputFilter {
 			| EditorInfo.TYPE_NUMBER_VARIATION_PASSWORD;
 	private static final PinKeyListener[] sInstance = new PinKeyListener[3];
 
-	private Type mType;
+	private final PinCharset mCharset;
+	private final int mInputType;
 
 	public enum Type {
-		NUMERIC {
-			@Override
-			boolean acceptChar(char c) {
-				return Character.isDigit(c);
-			}
+		NUMERIC(PinCharset.NUMERIC, INPUT_TYPE_NUMBER),
+		ALPHA(PinCharset.ALPHA, INPUT_TYPE_TEXT),
+		ALPHA_NUMERIC(PinCharset.ALPHA_NUMERIC, INPUT_TYPE_TEXT);
 
-			@Override
-			int getInputType() {
-				return INPUT_TYPE_NUMBER;
-			}
-		},
-		ALPHA {
-			@Override
-			boolean acceptChar(char c) {
-				return Character.isLetter(c);
-			}
+		private final PinCharset mCharset;
+		private final int mInputType;
 
-			@Override
-			int getInputType() {
-				return INPUT_TYPE_TEXT;
-			}
-		},
-		ALPHA_NUMERIC {
-			@Override
-			boolean acceptChar(char c) {
-				return Character.isLetterOrDigit(c);
-			}
+		private Type(PinCharset charset, int inputType) {
+			mCharset = charset;
+			mInputType = inputType;
+		}
 
-			@Override
-			int getInputType() {
-				return INPUT_TYPE_TEXT;
-			}
-		};
+		boolean acceptChar(char c) {
+			return mCharset.accept(c);
+		}
 
-		abstract boolean acceptChar(char c);
+		int getInputType() {
+			return mInputType;
+		}
 
-		abstract int getInputType();
+		PinCharset getCharset() {
+			return mCharset;
+		}
 	}
 
 	public PinKeyListener(Type type) {
+		this(type.getCharset(), type.getInputType());
+	}
+
+	/**
+	 * Create a listener for a custom {@link PinCharset}. The input method is asked for a number
+	 * keyboard if the charset only holds digits, and for a text keyboard otherwise.
+	 */
+	public PinKeyListener(PinCharset charset) {
+		this(charset, charset.isDigitsOnly() ? INPUT_TYPE_NUMBER : INPUT_TYPE_TEXT);
+	}
+
+	private PinKeyListener(PinCharset charset, int inputType) {
 		super(Capitalize.NONE, false);
-		mType = type;
+		mCharset = charset;
+		mInputType = inputType;
 	}
 
 	public static PinKeyListener getInstance(Type type) {
@@ -89,24 +100,59 @@ public class PinKeyListener extends QwertyKeyListener implements InputFilter {
 	}
 
 	@Override
-	public CharSequence filter(CharSequence source, int start, int end, Spanned dest, int dstart,
-			int dend) {
-		final int length = source.length();
-		if (length == 0) {
-			return source;
+	public boolean onKeyDown(View view, Editable content, int keyCode, KeyEvent event) {
+		// the framework listener creates a String for every character, so take the common keys
+		if (content instanceof PinBuffer && event.getMetaState() == 0
+				&& MetaKeyKeyListener.getMetaState(content) == 0
+				&& handleKey((PinBuffer) content, keyCode, event.getUnicodeChar())) {
+			return true;
 		}
+		return super.onKeyDown(view, content, keyCode, event);
+	}
 
-		StringBuilder filtered = new StringBuilder(source);
-		for (int i = length - 1; i >= 0; i--) {
-			if (!mType.acceptChar(filtered.charAt(i))) {
-				filtered.deleteCharAt(i);
+	/*
+	 * Applies a key pressed without meta keys to the pin: delete removes the last character, and a
+	 * printable character is appended, or dropped by the pin's filter, like the framework listener
+	 * does. Returns false for the keys left to the framework listener.
+	 */
+	/*package*/ static boolean handleKey(PinBuffer buffer, int keyCode, int unicodeChar) {
+		if (keyCode == KeyEvent.KEYCODE_DEL) {
+			final int length = buffer.length();
+			if (length == 0) {
+				return false;
 			}
+			buffer.delete(length - 1, length);
+			return true;
+		}
+		if (unicodeChar <= 0 || unicodeChar > Character.MAX_VALUE
+				|| unicodeChar == KeyCharacterMap.HEX_INPUT
+				|| unicodeChar == KeyCharacterMap.PICKER_DIALOG_INPUT) {
+			return false;
 		}
-		return filtered;
+		buffer.append((char) unicodeChar);
+		return true;
+	}
+
+	/**
+	 * Drops the characters not accepted by this listener's {@link PinCharset} and normalizes the
+	 * rest. Returns null, keeping the source, when every character is accepted as it is, so the
+	 * common case does not allocate.
+	 */
+	@Override
+	public CharSequence filter(CharSequence source, int start, int end, Spanned dest, int dstart,
+			int dend) {
+		return mCharset.filter(source, start, end);
+	}
+
+	/**
+	 * Get the {@link PinCharset} of the characters accepted by this listener.
+	 */
+	public PinCharset getCharset() {
+		return mCharset;
 	}
 
 	@Override
 	public int getInputType() {
-		return mType.getInputType();
+		return mInputType;
 	}
 }
@@ -0,0 +1,330 @@
+/*
+ * Copyright (C) 2013 Karakuri <karakuri.dev@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.karakuri.lib.pincodeview;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.CRC32;
+
+/**
+ * Throttles pin attempts with an exponential backoff. After a number of free failed attempts,
+ * each further failure locks out input for twice as long as the previous one, up to a maximum. A
+ * correct pin resets the schedule.
+ * <p>
+ * The failure count and the lockout deadline are kept in a small file, so they survive process
+ * death. Each recorded attempt that changes them replaces the file atomically with a single write
+ * and a single sync. The deadline is stored as wall clock time; a deadline further away than the
+ * maximum delay, e.g. after the clock was set back, is moved to the maximum delay from now.
+ * <p>
+ * The file is read by {@link #load()}, or on first use otherwise. Once loaded, the getters only
+ * read fields, without waiting for a write in progress, so they can be called on the main thread.
+ * <p>
+ * This class does not depend on the Android framework, and it is thread safe.
+ *
+ * @see PinCodeView#setPinLockout(PinLockout)
+ */
+public class PinLockout {
+	/** The default number of failed attempts allowed before input is locked out. */
+	public static final int DEFAULT_FREE_ATTEMPTS = 3;
+	/** The default lockout after the first failure beyond the free attempts. */
+	public static final long DEFAULT_BASE_DELAY_MILLIS = 5 * 1000L;
+	/** The default upper bound of a lockout. */
+	public static final long DEFAULT_MAX_DELAY_MILLIS = 30 * 60 * 1000L;
+
+	/*
+	 * File layout, big endian:
+	 * 0  int  magic and version
+	 * 4  int  failure count
+	 * 8  long lockout deadline, in milliseconds since the epoch
+	 * 16 int  CRC32 of the bytes above
+	 */
+	private static final int MAGIC = 0x504c4b01; // "PLK" v1
+	private static final int RECORD_LENGTH = 20;
+	private static final int CHECKSUM_OFFSET = 16;
+
+	private final File mFile;
+	private final File mTempFile;
+	private final int mFreeAttempts;
+	private final long mBaseDelayMillis;
+	private final long mMaxDelayMillis;
+
+	// reused for every read and write
+	private final byte[] mRecord = new byte[RECORD_LENGTH];
+	private final CRC32 mCrc = new CRC32();
+
+	// written while holding the lock, which also covers the file; read without it
+	private volatile boolean mLoaded;
+	private volatile int mFailureCount;
+	private volatile long mDeadlineMillis;
+
+	/**
+	 * Create a lockout with the default schedule.
+	 *
+	 * @param file Where to keep the counters, e.g. in {@code Context.getFilesDir()}. A temporary
+	 *            file with the suffix ".tmp" is created next to it while saving.
+	 */
+	public PinLockout(File file) {
+		this(file, DEFAULT_FREE_ATTEMPTS, DEFAULT_BASE_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS);
+	}
+
+	/**
+	 * Create a lockout with a custom schedule.
+	 *
+	 * @param file Where to keep the counters.
+	 * @param freeAttempts The number of failed attempts allowed before input is locked out.
+	 * @param baseDelayMillis The lockout after the first failure beyond the free attempts. It
+	 *            doubles with each further failure.
+	 * @param maxDelayMillis The upper bound of a lockout.
+	 */
+	public PinLockout(File file, int freeAttempts, long baseDelayMillis, long maxDelayMillis) {
+		if (file == null) {
+			throw new IllegalArgumentException("file must not be null");
+		}
+		if (freeAttempts < 0) {
+			throw new IllegalArgumentException("freeAttempts must not be negative");
+		}
+		if (baseDelayMillis <= 0 || maxDelayMillis < baseDelayMillis) {
+			throw new IllegalArgumentException("delays must satisfy 0 < base <= max");
+		}
+		mFile = file;
+		mTempFile = new File(file.getPath() + ".tmp");
+		mFreeAttempts = freeAttempts;
+		mBaseDelayMillis = baseDelayMillis;
+		mMaxDelayMillis = maxDelayMillis;
+	}
+
+	/**
+	 * Read the counters from the file, if not done yet. This does file I/O, so call it off the
+	 * main thread before reading the counters there; {@link PinCodeView} does.
+	 */
+	public synchronized void load() {
+		ensureLoaded();
+	}
+
+	/**
+	 * Returns true once the counters have been read from the file.
+	 */
+	public boolean isLoaded() {
+		return mLoaded;
+	}
+
+	/**
+	 * Record the result of a pin attempt. A failure beyond the free attempts starts a lockout. The
+	 * counters are updated in memory even if saving them fails.
+	 *
+	 * @param verified true if the pin was correct.
+	 * @throws IOException if the counters could not be saved.
+	 */
+	public synchronized void recordAttempt(boolean verified) throws IOException {
+		ensureLoaded();
+		if (verified) {
+			if (mFailureCount == 0 && mDeadlineMillis == 0) {
+				return; // nothing to save
+			}
+			mFailureCount = 0;
+			mDeadlineMillis = 0;
+		} else {
+			if (mFailureCount < Integer.MAX_VALUE) {
+				mFailureCount++;
+			}
+			final long delay = getDelayMillis(mFailureCount);
+			if (delay > 0) {
+				mDeadlineMillis = currentTimeMillis() + delay;
+			}
+		}
+		save();
+	}
+
+	/**
+	 * Forget all failed attempts and end any lockout.
+	 *
+	 * @throws IOException if the counters could not be saved.
+	 */
+	public synchronized void reset() throws IOException {
+		ensureLoaded();
+		mFailureCount = 0;
+		mDeadlineMillis = 0;
+		save();
+	}
+
+	/**
+	 * Returns the number of failed attempts since the last correct pin. Reads the file if it was
+	 * not loaded yet.
+	 */
+	public int getFailureCount() {
+		if (!mLoaded) {
+			load();
+		}
+		return mFailureCount;
+	}
+
+	/**
+	 * Returns the time left until input is allowed again, or 0 if it is not locked out. Reads the
+	 * file if it was not loaded yet.
+	 */
+	public long getRemainingMillis() {
+		if (!mLoaded) {
+			load();
+		}
+		final long deadline = mDeadlineMillis;
+		if (deadline == 0) {
+			return 0;
+		}
+		final long now = currentTimeMillis();
+		final long remaining = deadline - now;
+		if (remaining <= 0) {
+			return 0;
+		}
+		if (remaining > mMaxDelayMillis) {
+			// the clock was set back since loading; saved with the next attempt
+			synchronized (this) {
+				if (mDeadlineMillis == deadline) {
+					mDeadlineMillis = now + mMaxDelayMillis;
+				}
+			}
+			return mMaxDelayMillis;
+		}
+		return remaining;
+	}
+
+	public boolean isLockedOut() {
+		return getRemainingMillis() > 0;
+	}
+
+	/**
+	 * Returns the lockout following the given number of failed attempts, or 0 if there is none.
+	 */
+	public long getDelayMillis(int failureCount) {
+		final int doublings = failureCount - mFreeAttempts - 1;
+		if (doublings < 0) {
+			return 0;
+		}
+		if (doublings >= 62 || mBaseDelayMillis > (mMaxDelayMillis >> doublings)) {
+			return mMaxDelayMillis;
+		}
+		return mBaseDelayMillis << doublings;
+	}
+
+	/**
+	 * Returns the current wall clock time, in milliseconds since the epoch.
+	 */
+	protected long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+
+	private void ensureLoaded() {
+		if (!mLoaded) {
+			read();
+			// only now, so the getters never see the counters before they are read
+			mLoaded = true;
+		}
+	}
+
+	private void read() {
+		final byte[] record = mRecord;
+		FileInputStream in = null;
+		try {
+			in = new FileInputStream(mFile);
+			int read = 0;
+			while (read < RECORD_LENGTH) {
+				final int n = in.read(record, read, RECORD_LENGTH - read);
+				if (n < 0) {
+					return; // truncated, start over
+				}
+				read += n;
+			}
+		} catch (IOException e) {
+			return; // missing or unreadable, start over
+		} finally {
+			closeQuietly(in);
+		}
+
+		mCrc.reset();
+		mCrc.update(record, 0, CHECKSUM_OFFSET);
+		if (readInt(record, 0) != MAGIC
+				|| readInt(record, CHECKSUM_OFFSET) != (int) mCrc.getValue()) {
+			return; // not ours or torn, start over
+		}
+		mFailureCount = Math.max(0, readInt(record, 4));
+		mDeadlineMillis = readLong(record, 8);
+
+		final long now = currentTimeMillis();
+		if (mDeadlineMillis - now > mMaxDelayMillis) {
+			// the clock was set back; keep the lockout from lasting until it catches up
+			mDeadlineMillis = now + mMaxDelayMillis;
+			try {
+				save();
+			} catch (IOException e) {
+				// the in-memory deadline still applies, and the next load clamps it again
+			}
+		}
+	}
+
+	private void save() throws IOException {
+		final byte[] record = mRecord;
+		writeInt(record, 0, MAGIC);
+		writeInt(record, 4, mFailureCount);
+		writeLong(record, 8, mDeadlineMillis);
+		mCrc.reset();
+		mCrc.update(record, 0, CHECKSUM_OFFSET);
+		writeInt(record, CHECKSUM_OFFSET, (int) mCrc.getValue());
+
+		// write a complete copy, then rename it over the old one
+		FileOutputStream out = new FileOutputStream(mTempFile);
+		try {
+			out.write(record);
+			out.getFD().sync();
+		} finally {
+			closeQuietly(out);
+		}
+		if (!mTempFile.renameTo(mFile)) {
+			mTempFile.delete();
+			throw new IOException("Failed to rename " + mTempFile + " to " + mFile);
+		}
+	}
+
+	private static int readInt(byte[] b, int off) {
+		return ((b[off] & 0xff) << 24) | ((b[off + 1] & 0xff) << 16) | ((b[off + 2] & 0xff) << 8)
+				| (b[off + 3] & 0xff);
+	}
+
+	private static long readLong(byte[] b, int off) {
+		return ((long) readInt(b, off) << 32) | (readInt(b, off + 4) & 0xffffffffL);
+	}
+
+	private static void writeInt(byte[] b, int off, int value) {
+		b[off] = (byte) (value >>> 24);
+		b[off + 1] = (byte) (value >>> 16);
+		b[off + 2] = (byte) (value >>> 8);
+		b[off + 3] = (byte) value;
+	}
+
+	private static void writeLong(byte[] b, int off, long value) {
+		writeInt(b, off, (int) (value >>> 32));
+		writeInt(b, off + 4, (int) value);
+	}
+
+	private static void closeQuietly(Closeable closeable) {
+		if (closeable != null) {
+			try {
+				closeable.close();
+			} catch (IOException e) {
+				// ignore
+			}
+		}
+	}
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright (C) 2013 Karakuri <karakuri.dev@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.karakuri.lib.pincodeview;
+
+import java.nio.BufferOverflowException;
+import java.nio.CharBuffer;
+
+/**
+ * The state of a pin being entered: its characters, the maximum length and the accepted
+ * {@link PinCharset}. Edits normalize characters into the charset, drop characters that are not
+ * accepted and truncate text that does not fit, then report the change to an
+ * {@link OnPinChangeListener}. The characters are kept in a {@code char[]} sized to the maximum
+ * length, and removed characters are zeroed.
+ * <p>
+ * This class does not depend on the Android framework, and it is not thread safe.
+ */
+public class PinModel {
+
+	/**
+	 * Interface definition for a callback to be invoked when the pin changes. Changes made during
+	 * a batch edit are reported once when the batch ends.
+	 */
+	public interface OnPinChangeListener {
+		/**
+		 * Called when the pin has changed.
+		 *
+		 * @param model The model whose pin changed.
+		 * @param oldLength The length of the pin before the change.
+		 * @param newLength The length of the pin after the change.
+		 */
+		public void onPinChanged(PinModel model, int oldLength, int newLength);
+	}
+
+	private char[] mChars;
+	private int mLength;
+	private PinCharset mCharset;
+	private OnPinChangeListener mListener;
+
+	private int mBatchDepth;
+	private int mBatchStartLength;
+	private boolean mChangedInBatch;
+
+	public PinModel(int maxLength) {
+		this(maxLength, PinCharset.NUMERIC);
+	}
+
+	public PinModel(int maxLength, PinCharset charset) {
+		if (maxLength < 0) {
+			throw new IllegalArgumentException("maxLength must not be negative");
+		}
+		if (charset == null) {
+			throw new IllegalArgumentException("charset must not be null");
+		}
+		mChars = new char[maxLength];
+		mCharset = charset;
+	}
+
+	public void setOnPinChangeListener(OnPinChangeListener listener) {
+		mListener = listener;
+	}
+
+	/**
+	 * Set the maximum pin length. The current pin is kept, but it will be truncated if it exceeds
+	 * the new maximum.
+	 */
+	public void setMaxLength(int maxLength) {
+		if (maxLength < 0) {
+			throw new IllegalArgumentException("maxLength must not be negative");
+		}
+		if (maxLength == mChars.length) {
+			return;
+		}
+
+		final int oldLength = mLength;
+		final int length = Math.min(oldLength, maxLength);
+		char[] chars = new char[maxLength];
+		System.arraycopy(mChars, 0, chars, 0, length);
+		wipe(mChars, 0, mChars.length);
+		mChars = chars;
+		mLength = length;
+
+		// reported with the new maximum in place, so a truncated pin is seen as filled
+		if (length < oldLength) {
+			onChanged(oldLength);
+		}
+	}
+
+	public int getMaxLength() {
+		return mChars.length;
+	}
+
+	/**
+	 * Set the characters accepted by later edits. The current pin is kept as it is.
+	 */
+	public void setCharset(PinCharset charset) {
+		if (charset == null) {
+			throw new IllegalArgumentException("charset must not be null");
+		}
+		mCharset = charset;
+	}
+
+	public PinCharset getCharset() {
+		return mCharset;
+	}
+
+	public int length() {
+		return mLength;
+	}
+
+	public char charAt(int index) {
+		if (index < 0 || index >= mLength) {
+			throw new IndexOutOfBoundsException("charAt: " + index + " out of 0 ... " + mLength);
+		}
+		return mChars[index];
+	}
+
+	public boolean isEmpty() {
+		return mLength == 0;
+	}
+
+	/**
+	 * Returns true if the pin has reached the maximum length.
+	 */
+	public boolean isFilled() {
+		return mLength == mChars.length;
+	}
+
+	/**
+	 * Copy the characters in [start ... end) to dest, starting at destOffset.
+	 */
+	public void getChars(int start, int end, char[] dest, int destOffset) {
+		checkRange("getChars", start, end);
+		System.arraycopy(mChars, start, dest, destOffset, end - start);
+	}
+
+	/**
+	 * Copy the pin into dest at its current position, without allocating.
+	 *
+	 * @throws java.nio.BufferOverflowException if dest does not have enough room.
+	 * @throws java.nio.ReadOnlyBufferException if dest is read-only.
+	 */
+	public void copyTo(CharBuffer dest) {
+		if (dest.remaining() < mLength) {
+			throw new BufferOverflowException();
+		}
+		for (int i = 0; i < mLength; i++) {
+			dest.put(mChars[i]);
+		}
+	}
+
+	/**
+	 * Returns a new String holding the pin. Prefer {@link #getChars(int, int, char[], int)} or
+	 * {@link #copyTo(CharBuffer)} for secrets, since Strings cannot be wiped.
+	 */
+	@Override
+	public String toString() {
+		return new String(mChars, 0, mLength);
+	}
+
+	/**
+	 * Remove all characters and zero-fill the backing storage.
+	 */
+	public void wipe() {
+		final int oldLength = mLength;
+		wipe(mChars, 0, mChars.length);
+		mLength = 0;
+		if (oldLength > 0) {
+			onChanged(oldLength);
+		}
+	}
+
+	/**
+	 * Start a batch edit. Changes are reported once, when the outermost batch edit ends.
+	 */
+	public void beginBatchEdit() {
+		if (mBatchDepth++ == 0) {
+			mBatchStartLength = mLength;
+		}
+	}
+
+	/**
+	 * End a batch edit started with {@link #beginBatchEdit()}.
+	 */
+	public void endBatchEdit() {
+		if (mBatchDepth > 0 && --mBatchDepth == 0 && mChangedInBatch) {
+			mChangedInBatch = false;
+			dispatchChanged(mBatchStartLength);
+		}
+	}
+
+	/**
+	 * Replace the characters in [st ... en) with the accepted characters of
+	 * source[start ... end), normalized by the charset. Characters that do not fit within the
+	 * maximum length are dropped.
+	 *
+	 * @return The number of characters inserted.
+	 */
+	public int replace(int st, int en, CharSequence source, int start, int end) {
+		checkRange("replace", st, en);
+
+		final PinCharset charset = mCharset;
+		final int removed = en - st;
+		final int available = mChars.length - (mLength - removed);
+		int count = 0;
+		for (int i = start; i < end && count < available; i++) {
+			if (charset.normalize(source.charAt(i)) != 0) count++;
+		}
+		if (removed == 0 && count == 0) {
+			return 0;
+		}
+
+		final int oldLength = mLength;
+		System.arraycopy(mChars, en, mChars, st + count, oldLength - en);
+		for (int i = start, j = st; j < st + count; i++) {
+			final char c = charset.normalize(source.charAt(i));
+			if (c != 0) {
+				mChars[j++] = c;
+			}
+		}
+		mLength = oldLength - removed + count;
+		if (mLength < oldLength) {
+			// don't leave removed characters behind
+			wipe(mChars, mLength, oldLength);
+		}
+
+		onChanged(oldLength);
+		return count;
+	}
+
+	/**
+	 * Append a single character, normalized by the charset, if it is accepted and fits.
+	 *
+	 * @return true if the character was appended.
+	 */
+	public boolean append(char c) {
+		final char normalized = mCharset.normalize(c);
+		if (mLength == mChars.length || normalized == 0) {
+			return false;
+		}
+
+		mChars[mLength++] = normalized;
+		onChanged(mLength - 1);
+		return true;
+	}
+
+	/**
+	 * Remove the characters in [st ... en).
+	 */
+	public void delete(int st, int en) {
+		replace(st, en, "", 0, 0);
+	}
+
+	/**
+	 * Remove all characters.
+	 */
+	public void clear() {
+		if (mLength > 0) {
+			delete(0, mLength);
+		}
+	}
+
+	private void onChanged(int oldLength) {
+		if (mBatchDepth > 0) {
+			mChangedInBatch = true;
+		} else {
+			dispatchChanged(oldLength);
+		}
+	}
+
+	private void dispatchChanged(int oldLength) {
+		if (mListener != null) {
+			mListener.onPinChanged(this, oldLength, mLength);
+		}
+	}
+
+	private void checkRange(String operation, int start, int end) {
+		if (start < 0 || end > mLength || start > end) {
+			throw new IndexOutOfBoundsException(operation + " " + start + " ... " + end
+					+ " out of 0 ... " + mLength);
+		}
+	}
+
+	private static void wipe(char[] chars, int start, int end) {
+		for (int i = start; i < end; i++) {
+			chars[i] = 0;
+		}
+	}
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2013 Karakuri <karakuri.dev@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.karakuri.lib.pincodeview;
+
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+
+/**
+ * Encodes the pin of a {@link PinModel} for saved instance state. The first byte gives the
+ * format: one byte per character when every character fits, which is the case for digits and
+ * ASCII letters, two bytes per character otherwise, or either of those encrypted with AES under a
+ * key that only lives as long as the process. An encrypted pin survives configuration changes,
+ * but not process death.
+ * <p>
+ * Every temporary plain text buffer is zero-filled before returning.
+ */
+/*package*/ final class PinStateCodec {
+	private static final byte FORMAT_ONE_BYTE = 1;
+	private static final byte FORMAT_TWO_BYTE = 2;
+	private static final byte FORMAT_ENCRYPTED = 3;
+
+	private static final String CIPHER_ALGORITHM = "AES/CBC/PKCS5Padding";
+	private static final int IV_LENGTH = 16;
+	private static final int KEY_SIZE = 128;
+
+	private static SecretKey sProcessKey;
+	private static SecureRandom sRandom;
+
+	private PinStateCodec() {
+	}
+
+	/**
+	 * Returns the pin of the model in the compact format.
+	 */
+	public static byte[] encode(PinModel model) {
+		final int length = model.length();
+		boolean oneByte = true;
+		for (int i = 0; i < length && oneByte; i++) {
+			oneByte = model.charAt(i) < 0x100;
+		}
+
+		final byte[] data = new byte[1 + (oneByte ? length : 2 * length)];
+		data[0] = oneByte ? FORMAT_ONE_BYTE : FORMAT_TWO_BYTE;
+		for (int i = 0, j = 1; i < length; i++) {
+			final char c = model.charAt(i);
+			if (!oneByte) {
+				data[j++] = (byte) (c >>> 8);
+			}
+			data[j++] = (byte) c;
+		}
+		return data;
+	}
+
+	/**
+	 * Returns the pin of the model in the compact format, encrypted with the key of this process.
+	 */
+	public static byte[] encrypt(PinModel model) throws GeneralSecurityException {
+		final byte[] plain = encode(model);
+		try {
+			final byte[] iv = new byte[IV_LENGTH];
+			getRandom().nextBytes(iv);
+			Cipher cipher = Cipher.getInstance(CIPHER_ALGORITHM);
+			cipher.init(Cipher.ENCRYPT_MODE, getProcessKey(), new IvParameterSpec(iv));
+
+			final byte[] data = new byte[1 + IV_LENGTH + cipher.getOutputSize(plain.length)];
+			data[0] = FORMAT_ENCRYPTED;
+			System.arraycopy(iv, 0, data, 1, IV_LENGTH);
+			final int written = cipher.doFinal(plain, 0, plain.length, data, 1 + IV_LENGTH);
+			if (1 + IV_LENGTH + written == data.length) {
+				return data;
+			}
+			final byte[] trimmed = new byte[1 + IV_LENGTH + written];
+			System.arraycopy(data, 0, trimmed, 0, trimmed.length);
+			return trimmed;
+		} finally {
+			Arrays.fill(plain, (byte) 0);
+		}
+	}
+
+	/**
+	 * Returns the pin held by data, in any format, or null if it cannot be decoded, e.g. because it
+	 * was encrypted by another process. The caller should wipe the returned array.
+	 */
+	public static char[] decode(byte[] data) {
+		if (data == null || data.length == 0) {
+			return null;
+		}
+
+		switch (data[0]) {
+		case FORMAT_ONE_BYTE:
+		case FORMAT_TWO_BYTE:
+			return decodePlain(data, 0, data.length);
+		case FORMAT_ENCRYPTED:
+			return decrypt(data);
+		default:
+			return null;
+		}
+	}
+
+	private static char[] decodePlain(byte[] data, int offset, int end) {
+		if (end <= offset) {
+			return null;
+		}
+		final boolean oneByte = data[offset] == FORMAT_ONE_BYTE;
+		if (!oneByte && data[offset] != FORMAT_TWO_BYTE) {
+			return null;
+		}
+
+		final int bytes = end - offset - 1;
+		if (!oneByte && bytes % 2 != 0) {
+			return null;
+		}
+		final char[] chars = new char[oneByte ? bytes : bytes / 2];
+		for (int i = 0, j = offset + 1; i < chars.length; i++) {
+			if (oneByte) {
+				chars[i] = (char) (data[j++] & 0xff);
+			} else {
+				chars[i] = (char) (((data[j] & 0xff) << 8) | (data[j + 1] & 0xff));
+				j += 2;
+			}
+		}
+		return chars;
+	}
+
+	private static char[] decrypt(byte[] data) {
+		final SecretKey key;
+		synchronized (PinStateCodec.class) {
+			key = sProcessKey;
+		}
+		if (key == null || data.length <= 1 + IV_LENGTH) {
+			return null; // saved by an earlier process
+		}
+
+		byte[] plain = null;
+		try {
+			Cipher cipher = Cipher.getInstance(CIPHER_ALGORITHM);
+			cipher.init(Cipher.DECRYPT_MODE, key, new IvParameterSpec(data, 1, IV_LENGTH));
+			plain = new byte[cipher.getOutputSize(data.length - 1 - IV_LENGTH)];
+			final int length = cipher.doFinal(data, 1 + IV_LENGTH, data.length - 1 - IV_LENGTH,
+					plain, 0);
+			return decodePlain(plain, 0, length);
+		} catch (GeneralSecurityException e) {
+			return null;
+		} finally {
+			if (plain != null) {
+				Arrays.fill(plain, (byte) 0);
+			}
+		}
+	}
+
+	private static synchronized SecretKey getProcessKey() throws GeneralSecurityException {
+		if (sProcessKey == null) {
+			KeyGenerator generator = KeyGenerator.getInstance("AES");
+			generator.init(KEY_SIZE, getRandom());
+			sProcessKey = generator.generateKey();
+		}
+		return sProcessKey;
+	}
+
+	private static synchronized SecureRandom getRandom() {
+		if (sRandom == null) {
+			sRandom = new SecureRandom();
+		}
+		return sRandom;
+	}
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2013 Karakuri <karakuri.dev@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.karakuri.lib.pincodeview;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+/**
+ * A single verification of a pin. It runs the {@link PinVerifier} on an executor, records the
+ * attempt with the {@link PinLockout}, if any, then runs again on the main thread to hand the
+ * result back to the {@link PinCodeView}. The pin is not verified while the lockout is in effect.
+ * An attempt is only recorded when the verifier finished without being cancelled: a cancelled
+ * verifier may give up early and return false, e.g. {@link HashedPinVerifier}, and the result of a
+ * cancelled verification is never reported, so it tells nobody whether the pin was correct.
+ */
+/*package*/ class PinVerification implements Runnable, PinVerifier.Cancellation {
+	private static final String TAG = "PinVerification";
+
+	private static Handler sMainHandler;
+	private static ExecutorService sDefaultExecutor;
+
+	/**
+	 * Receives the result of a verification on the main thread. It is called for cancelled
+	 * verifications as well, so the lockout can be refreshed once the executor is done with them.
+	 */
+	/*package*/ interface Callback {
+		void onVerificationResult(PinVerification verification, boolean verified);
+	}
+
+	private final PinVerifier mVerifier;
+	private final PinLockout mLockout;
+	private final Callback mCallback;
+	private final char[] mPin;
+
+	private volatile boolean mCanceled;
+	// set on the executor thread before posting back to the main thread
+	private volatile boolean mDone;
+	private boolean mVerified;
+	// whether the verifier was called, i.e. the pin was not skipped for a lockout or cancellation
+	private boolean mAttempted;
+
+	/**
+	 * @param lockout Where to record the attempt, or null.
+	 * @param pin A copy of the pin owned by this verification, which wipes it when done.
+	 */
+	public PinVerification(PinVerifier verifier, PinLockout lockout, Callback callback,
+			char[] pin) {
+		mVerifier = verifier;
+		mLockout = lockout;
+		mCallback = callback;
+		mPin = pin;
+	}
+
+	/**
+	 * Returns a shared executor running verifications one at a time on a background thread.
+	 */
+	public static synchronized Executor getDefaultExecutor() {
+		if (sDefaultExecutor == null) {
+			sDefaultExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(final Runnable r) {
+					Thread thread = new Thread(new Runnable() {
+						@Override
+						public void run() {
+							Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+							r.run();
+						}
+					}, TAG);
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return sDefaultExecutor;
+	}
+
+	/*package*/ static synchronized Handler getMainHandler() {
+		if (sMainHandler == null) {
+			sMainHandler = new Handler(Looper.getMainLooper());
+		}
+		return sMainHandler;
+	}
+
+	public void start(Executor executor) {
+		executor.execute(this);
+	}
+
+	/**
+	 * Cancel this verification. The verifier may still run to completion, but the attempt is not
+	 * recorded and its result should be dropped. Must be called on the main thread.
+	 */
+	public void cancel() {
+		mCanceled = true;
+	}
+
+	@Override
+	public boolean isCanceled() {
+		return mCanceled;
+	}
+
+	/**
+	 * Returns true if the verifier checked the pin, false if it was skipped because of a lockout
+	 * or a cancellation. Only valid in the callback.
+	 */
+	public boolean wasAttempted() {
+		return mAttempted;
+	}
+
+	@Override
+	public void run() {
+		if (mDone) {
+			// back on the main thread
+			mCallback.onVerificationResult(this, mVerified);
+			return;
+		}
+
+		verifyAndRecord();
+		mDone = true;
+		getMainHandler().post(this);
+	}
+
+	/*
+	 * The part of run() done on the executor: verify the pin, unless locked out or cancelled, and
+	 * record the attempt.
+	 */
+	/*package*/ void verifyAndRecord() {
+		try {
+			// a lockout may have started since the view checked, e.g. from another view's attempt
+			if (!mCanceled && (mLockout == null || !mLockout.isLockedOut())) {
+				mAttempted = true;
+				mVerified = mVerifier.verify(mPin, this);
+			}
+		} catch (RuntimeException e) {
+			Log.w(TAG, "PinVerifier failed, treating the pin as incorrect", e);
+			mVerified = false;
+		} finally {
+			Arrays.fill(mPin, '\0');
+		}
+
+		// a verifier that saw the cancellation may have returned early, so only count finished ones
+		if (mLockout != null && mAttempted && !mCanceled) {
+			try {
+				mLockout.recordAttempt(mVerified);
+			} catch (IOException e) {
+				Log.w(TAG, "Failed to save the pin lockout", e);
+			}
+		}
+	}
+}
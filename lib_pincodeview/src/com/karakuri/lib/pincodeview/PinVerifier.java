@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2013 Karakuri <karakuri.dev@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.karakuri.lib.pincodeview;
+
+/**
+ * Checks a completed pin. A {@link PinCodeView} calls its verifier on a background
+ * {@link java.util.concurrent.Executor}, so verification may be slow, e.g. a key derivation
+ * function or a network call.
+ *
+ * @see PinCodeView#setPinVerifier(PinVerifier, java.util.concurrent.Executor)
+ */
+public interface PinVerifier {
+
+	/**
+	 * Lets a verifier find out that its result is no longer needed, because the pin was edited or
+	 * verification was cancelled.
+	 */
+	public interface Cancellation {
+		/**
+		 * Returns true if the result of this verification will be ignored.
+		 */
+		public boolean isCanceled();
+	}
+
+	/**
+	 * Check the given pin. This is called on a background thread. Long running implementations
+	 * should check {@link Cancellation#isCanceled()} and return early when it is true.
+	 *
+	 * @param pin A copy of the pin, which is zero-filled after this method returns.
+	 * @param cancellation Reports whether the result is still needed.
+	 * @return true if the pin is correct, false otherwise.
+	 */
+	public boolean verify(char[] pin, Cancellation cancellation);
+}